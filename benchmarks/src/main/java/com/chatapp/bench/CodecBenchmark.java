@@ -0,0 +1,95 @@
+package com.chatapp.bench;
+
+import com.chatapp.protocol.BinaryCodec;
+import com.chatapp.protocol.Command;
+import com.chatapp.protocol.CommandCodec;
+import com.chatapp.protocol.EventCodec;
+import com.chatapp.protocol.ServerEvent;
+import com.chatapp.server.Frame;
+import com.chatapp.server.Frames;
+import com.chatapp.util.MessageIds;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of server frames and decoding of client commands, the per-message codec work,
+ * for JSON and the binary frames (the *Binary methods). decodeCommandAsMap is the
+ * tree-of-maps style the server used before CommandCodec, kept as a baseline.
+ * Run with -prof gc to see bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private static final Gson GSON = new Gson();
+    private static final long MSG_ID = new MessageIds(0).next();
+
+    private final String msgLine = CommandCodec.encode(new Command.Msg("general", "hello everyone, how is it going?"));
+    private final byte[] msgBody = body(BinaryCodec.encode(new Command.Msg("general", "hello everyone, how is it going?")));
+    private final Frame serverMsg = Frames.roomMsg(MSG_ID, "general", "alice", "hello everyone, how is it going?");
+    private final String serverMsgFrame = new String(serverMsg.json(), StandardCharsets.UTF_8);
+    private final byte[] serverMsgBody = body(serverMsg.binary());
+
+    /** Strips the varint length prefix. */
+    private static byte[] body(byte[] frame) {
+        int i = 0;
+        while ((frame[i] & 0x80) != 0) i++;
+        return Arrays.copyOfRange(frame, i + 1, frame.length);
+    }
+
+    @Benchmark
+    public byte[] encodeServerMsg() {
+        return Frames.roomMsg(MSG_ID, "general", "alice", "hello everyone, how is it going?").json();
+    }
+
+    @Benchmark
+    public byte[] encodeServerMsgBinary() {
+        return Frames.roomMsg(MSG_ID, "general", "alice", "hello everyone, how is it going?").binary();
+    }
+
+    @Benchmark
+    public byte[] encodeOk() {
+        return new Frame(new ServerEvent.Ok("Message sent", null)).json();
+    }
+
+    @Benchmark
+    public Command decodeCommand() {
+        return CommandCodec.decode(msgLine);
+    }
+
+    @Benchmark
+    public Command decodeCommandBinary() {
+        return BinaryCodec.decodeCommand(msgBody);
+    }
+
+    @Benchmark
+    public Object decodeCommandAsMap() {
+        return GSON.fromJson(msgLine, Map.class);
+    }
+
+    @Benchmark
+    public String encodeCommand() {
+        return CommandCodec.encode(new Command.Msg("general", "hello everyone, how is it going?"));
+    }
+
+    @Benchmark
+    public ServerEvent decodeServerMsg() throws IOException {
+        return EventCodec.read(new JsonReader(new StringReader(serverMsgFrame)));
+    }
+
+    @Benchmark
+    public ServerEvent decodeServerMsgBinary() {
+        return BinaryCodec.decodeEvent(serverMsgBody);
+    }
+}
@@ -0,0 +1,58 @@
+package com.chatapp.bench;
+
+import com.chatapp.server.*;
+import com.chatapp.util.MessageIds;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One room message to every member of a room: encode the frame once, then queue it to
+ * each member's transport. The transport here only counts frames, so this measures the
+ * membership traversal and per-member send path, not socket I/O.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanoutBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int members;
+
+    private static final long MSG_ID = new MessageIds(0).next();
+
+    private ChatServer server;
+    private RoomMembers room;
+    private ClientHandler sender;
+    private long delivered;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new ChatServer(0, "nio", new InProcessClusterBus(new InProcessClusterBus.Hub(), 0),
+                new MemoryStorage(new MemoryMessageStore(100_000)));
+        Transport counting = new Transport() {
+            @Override public void send(byte[] frame) { delivered++; }
+            @Override public void close() {}
+        };
+        room = new RoomMembers();
+        for (int i = 0; i < members; i++) {
+            ClientHandler h = new ClientHandler(server, counting);
+            if (i == 0) sender = h;
+            room.add(h);
+        }
+    }
+
+    @Benchmark
+    public long broadcast() {
+        room.broadcast(sender, Frames.roomMsg(MSG_ID, "general", "alice", "hello everyone"));
+        return delivered;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.getMessageWriter().close();
+    }
+}
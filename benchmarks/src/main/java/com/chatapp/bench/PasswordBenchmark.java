@@ -0,0 +1,32 @@
+package com.chatapp.bench;
+
+import com.chatapp.util.PasswordUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** PBKDF2 cost per register (hash) and per login (verify); this is what CryptoPool threads spend. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PasswordBenchmark {
+    private String stored;
+
+    @Setup
+    public void setUp() {
+        stored = PasswordUtils.hashPassword("correct horse battery staple".toCharArray());
+    }
+
+    @Benchmark
+    public String hash() {
+        return PasswordUtils.hashPassword("correct horse battery staple".toCharArray());
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return PasswordUtils.verifyPassword(stored, "correct horse battery staple".toCharArray());
+    }
+}
@@ -0,0 +1,81 @@
+package com.chatapp.bench;
+
+import com.chatapp.model.Message;
+import com.chatapp.server.JdbcStorage;
+import com.chatapp.server.LogMessageStore;
+import com.chatapp.server.MemoryMessageStore;
+import com.chatapp.server.MemoryStorage;
+import com.chatapp.server.Storage;
+import com.chatapp.util.MessageIds;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message persistence through each Storage backend. "h2" is JdbcStorage on an in-memory H2
+ * database in MySQL mode, standing in for MySQL: absolute numbers are far below a networked
+ * MySQL; the point is to catch regressions in the JDBC path (statement reuse, batching,
+ * pooling) and to compare single vs batched inserts. "log" keeps messages in the append-only
+ * log in a temp dir, "memory" keeps everything on the heap.
+ * Each fork gets a fresh database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+    private static final String H2_URL = "jdbc:h2:mem:chat;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    private static final int BATCH = 100;
+    private static final int HISTORY_ROWS = 10_000;
+
+    private final MessageIds ids = new MessageIds(1);
+    private Storage storage;
+
+    @Param({"h2", "log", "memory"})
+    public String backend;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        storage = switch (backend) {
+            case "h2" -> new JdbcStorage(H2_URL, "sa", "", null);
+            case "log" -> new JdbcStorage(H2_URL, "sa", "", new LogMessageStore(Files.createTempDirectory("chat-log"), 64 << 20, false));
+            default -> new MemoryStorage(new MemoryMessageStore(100_000));
+        };
+        storage.ensureRoom("history");
+        List<Message> rows = new ArrayList<>(HISTORY_ROWS);
+        for (int i = 0; i < HISTORY_ROWS; i++) rows.add(new Message(ids.next(), "alice", "history", true, "message " + i));
+        if (!storage.saveMessages(rows)) throw new IllegalStateException("could not seed history");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Benchmark
+    public boolean saveMessage() {
+        return storage.saveMessage(new Message(ids.next(), "alice", "general", true, "hello everyone"));
+    }
+
+    /** One transaction of BATCH inserts; reported per message. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public boolean saveMessagesBatched() {
+        List<Message> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) batch.add(new Message(ids.next(), "alice", "general", true, "hello everyone"));
+        return storage.saveMessages(batch);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> fetchLatestHistory() {
+        return storage.fetchHistory("alice", "history", true, null, null, 50);
+    }
+}
@@ -0,0 +1,52 @@
+package com.chatapp.bench;
+
+import com.chatapp.protocol.Command;
+import com.chatapp.server.RateLimits;
+import com.chatapp.util.HashedWheelTimer;
+import com.chatapp.util.TokenBucket;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of the rate-limit check every command pays, alone and with all threads on one user's bucket. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateLimitBenchmark {
+    private static final Command MSG = new Command.Msg("lobby", "hello");
+
+    private TokenBucket bucket;
+    private HashedWheelTimer timer;
+    private RateLimits.Buckets user;
+
+    @Setup
+    public void setUp() {
+        bucket = new TokenBucket(1e9, 1000);
+        timer = new HashedWheelTimer("bench-timer", 100, 64);
+        user = new RateLimits("msg=1000000000/1000", "0", timer).forUser("alice");
+    }
+
+    @TearDown
+    public void tearDown() {
+        timer.close();
+    }
+
+    @Benchmark
+    public boolean bucket() {
+        return bucket.tryAcquire();
+    }
+
+    @Benchmark
+    public boolean command() {
+        return user.tryAcquire(MSG);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean commandContended() {
+        return user.tryAcquire(MSG);
+    }
+}
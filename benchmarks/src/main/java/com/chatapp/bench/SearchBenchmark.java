@@ -0,0 +1,63 @@
+package com.chatapp.bench;
+
+import com.chatapp.server.SearchIndex;
+import com.chatapp.util.MessageIds;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SearchIndex over one room of MESSAGES messages drawn from a small vocabulary: indexing a
+ * message, and top-20 queries for a common word, a rare one and a two-word AND of both.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    private static final int MESSAGES = 500_000;
+    private static final String[] WORDS = {
+            "deploy", "friday", "lunch", "build", "broken", "review", "merge", "standup", "coffee", "release",
+            "ticket", "server", "client", "latency", "cache", "index", "query", "thanks", "meeting", "today"};
+
+    private final MessageIds ids = new MessageIds(1);
+    private final Random random = new Random(42);
+    private SearchIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new SearchIndex(1L << 30, 100_000);
+        for (int i = 0; i < MESSAGES; i++) index.add(ids.next(), true, "alice", "general", sentence());
+    }
+
+    private String sentence() {
+        StringBuilder sb = new StringBuilder();
+        for (int w = 0; w < 8; w++) sb.append(WORDS[Math.min(random.nextInt(WORDS.length), random.nextInt(WORDS.length))]).append(' ');
+        if (random.nextInt(1000) == 0) sb.append("postmortem");
+        return sb.toString();
+    }
+
+    @Benchmark
+    public void add() {
+        index.add(ids.next(), true, "alice", "general", sentence());
+    }
+
+    @Benchmark
+    public long[] searchCommon() {
+        return index.search(true, "alice", "general", List.of("deploy"), null, 20);
+    }
+
+    @Benchmark
+    public long[] searchRare() {
+        return index.search(true, "alice", "general", List.of("postmortem"), null, 20);
+    }
+
+    @Benchmark
+    public long[] searchBoth() {
+        return index.search(true, "alice", "general", List.of("postmortem", "deploy"), null, 20);
+    }
+}
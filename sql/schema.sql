@@ -26,7 +26,9 @@ CREATE TABLE IF NOT EXISTS messages (
   receiver VARCHAR(100) NOT NULL,
   is_room BOOLEAN NOT NULL,
   text TEXT NOT NULL,
-  ts TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+  ts TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  KEY idx_messages_room (receiver, is_room, id),
+  KEY idx_messages_pair (sender, receiver, is_room, id)
 );
 
 CREATE TABLE IF NOT EXISTS invites (
@@ -34,3 +36,9 @@ CREATE TABLE IF NOT EXISTS invites (
   used BOOLEAN DEFAULT FALSE,
   created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
+
+CREATE TABLE IF NOT EXISTS sessions (
+  token_hash CHAR(64) PRIMARY KEY,
+  username VARCHAR(100) NOT NULL,
+  expires_at BIGINT NOT NULL
+);
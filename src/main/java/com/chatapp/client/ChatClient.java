@@ -1,61 +1,220 @@
 package com.chatapp.client;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.chatapp.protocol.Command;
+import com.chatapp.protocol.CommandCodec;
+import com.chatapp.protocol.ServerEvent;
+import com.google.gson.stream.MalformedJsonException;
 
 import java.io.*;
-import java.lang.reflect.Type;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Interactive console client. After a password login the server hands out a session token;
+ * if the connection drops, the client reconnects with backoff, resumes the session with that
+ * token (no password, no PBKDF2) and syncs: the server restores its rooms and sends what it
+ * missed since the last message id seen per conversation. With "binary" as the third
+ * argument it asks the server for binary frames instead of JSON lines.
+ * pipeline() and flush() let a caller push many commands in one batch frame without waiting
+ * for replies; each reply completes the future of the command with the same id.
+ */
 public class ChatClient {
-    private final Socket socket;
-    private final BufferedReader in;
-    private final BufferedWriter out;
-    private final Gson gson = new Gson();
-
-    public ChatClient(String host, int port) throws IOException {
-        this.socket = new Socket(host, port);
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-        this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
-    }
-
-    private void sendJson(Map<String,Object> payload) throws IOException {
-        String s = gson.toJson(payload) + "\n";
-        synchronized (out) {
-            out.write(s);
-            out.flush();
+    private static final int MAX_RECONNECT_ATTEMPTS = 8;
+    private static final int SYNC_LIMIT = 100;
+    private static final int SEARCH_LIMIT = 20;
+
+    private final String host;
+    private final int port;
+    private final boolean binary;
+    private volatile ClientConnection conn;
+    private volatile String sessionToken;
+    private volatile boolean quitting = false;
+    private final Map<String, Long> lastSeen = new ConcurrentHashMap<>(); // room or PM partner -> newest message id
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final Map<Long, CompletableFuture<ServerEvent>> inflight = new ConcurrentHashMap<>();
+    private final List<Command.Item> pipelined = new ArrayList<>(); // guarded by itself
+
+    public ChatClient(String host, int port, boolean binary) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.binary = binary;
+        connect();
+    }
+
+    private void connect() throws IOException {
+        this.conn = new ClientConnection(host, port, binary);
+    }
+
+    public void send(Command c) throws IOException {
+        conn.send(c);
+    }
+
+    private void trySend(Command c) {
+        try {
+            send(c);
+        } catch (IOException e) {
+            System.out.println("Send error: " + e.getMessage());
         }
     }
 
-    private Map<String,Object> recvJson() throws IOException {
-        String line = in.readLine();
-        if (line == null) return null;
-        Type t = new TypeToken<Map<String,Object>>(){}.getType();
-        return gson.fromJson(line, t);
+    /** Queues a command for the next flush and returns a future for its reply; does no I/O. */
+    public CompletableFuture<ServerEvent> pipeline(Command c) {
+        long id = nextRequestId.incrementAndGet();
+        CompletableFuture<ServerEvent> reply = new CompletableFuture<>();
+        inflight.put(id, reply);
+        synchronized (pipelined) {
+            pipelined.add(new Command.Item(id, c));
+        }
+        return reply;
     }
 
-    public void start() {
-        Thread reader = new Thread(() -> {
+    /** Sends the queued commands as batches of up to CommandCodec.MAX_BATCH, one write each. */
+    public void flush() throws IOException {
+        List<Command.Item> items;
+        synchronized (pipelined) {
+            if (pipelined.isEmpty()) return;
+            items = new ArrayList<>(pipelined);
+            pipelined.clear();
+        }
+        for (int i = 0; i < items.size(); i += CommandCodec.MAX_BATCH) {
+            List<Command.Item> chunk = items.subList(i, Math.min(items.size(), i + CommandCodec.MAX_BATCH));
             try {
-                Map<String,Object> m;
-                while ((m = recvJson()) != null) {
-                    String type = (String)m.get("type");
-                    if ("server_msg".equals(type)) System.out.println((String)m.get("text"));
-                    else if ("ok".equals(type)) System.out.println("[OK] " + m.get("msg"));
-                    else if ("error".equals(type)) System.out.println("[ERR] " + m.get("msg"));
-                    else if ("rooms".equals(type)) System.out.println("Rooms: " + m.get("rooms"));
-                    else if ("history".equals(type)) {
-                        System.out.println("--- history " + m.get("target") + " ---");
-                        System.out.println(m.get("messages"));
-                        System.out.println("--- end ---");
-                    } else {
-                        System.out.println(m);
-                    }
+                send(new Command.Batch(chunk));
+            } catch (IOException e) {
+                for (Command.Item item : items.subList(i, items.size())) fail(item.id(), e);
+                throw e;
+            }
+        }
+    }
+
+    private void fail(long id, IOException e) {
+        CompletableFuture<ServerEvent> reply = inflight.remove(id);
+        if (reply != null) reply.completeExceptionally(e);
+    }
+
+    /** Fails every pipelined command still waiting for a reply; the connection that would carry it is gone. */
+    private void failInflight() {
+        IOException e = new IOException("connection lost");
+        for (Long id : inflight.keySet()) fail(id, e);
+    }
+
+    /** Next server frame, or null when the server closed the connection. Malformed frames are skipped. */
+    public ServerEvent recv() throws IOException {
+        while (true) {
+            try {
+                return conn.next();
+            } catch (MalformedJsonException e) {
+                // skip the bad frame
+            }
+        }
+    }
+
+    /** Opens a new connection, resumes the session if there is one and syncs rooms and missed messages. */
+    private boolean reconnect() {
+        long backoff = 500;
+        for (int attempt = 1; attempt <= MAX_RECONNECT_ATTEMPTS && !quitting; attempt++) {
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            backoff = Math.min(backoff * 2, 10_000);
+            try {
+                connect();
+                String token = sessionToken;
+                if (token != null) {
+                    // resume and sync travel in one round trip
+                    pipeline(new Command.Resume(token));
+                    pipeline(syncCommand());
+                    flush();
                 }
+                System.out.println("Reconnected" + (token != null ? ", resuming session." : "."));
+                return true;
             } catch (IOException e) {
+                System.out.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private void print(ServerEvent e) {
+        switch (e) {
+            case ServerEvent.ServerMsg m -> {
+                if (m.id() != null) seen(m.target(), m.id());
+                System.out.println(m.text());
+            }
+            case ServerEvent.Ok o -> {
+                if (o.session() != null) sessionToken = o.session();
+                System.out.println("[OK] " + o.msg());
+            }
+            case ServerEvent.Error err -> {
+                if ("Invalid or expired session".equals(err.msg())) sessionToken = null;
+                System.out.println("[ERR] " + err.msg());
+            }
+            case ServerEvent.RoomList r -> System.out.println("Rooms: " + r.rooms());
+            case ServerEvent.History h -> {
+                System.out.println("--- history " + h.target() + " ---");
+                for (ServerEvent.Entry m : h.messages()) {
+                    seen(h.target(), m.id());
+                    System.out.println("#" + m.id() + " " + m.ts() + " " + m.sender() + " -> " + m.receiver() + ": " + m.text());
+                }
+                System.out.println("--- end ---");
+            }
+            case ServerEvent.SearchResults s -> {
+                System.out.println("--- search " + s.target() + " \"" + s.query() + "\" ---");
+                for (ServerEvent.Entry m : s.messages()) {
+                    System.out.println("#" + m.id() + " " + m.ts() + " " + m.sender() + " -> " + m.receiver() + ": " + m.text());
+                }
+                System.out.println(s.nextBeforeId() != null ? "--- more before #" + s.nextBeforeId() + " ---" : "--- end ---");
+            }
+            case ServerEvent.Stats s -> System.out.print(s.text());
+            case ServerEvent.Batch b -> {
+                for (ServerEvent.Reply r : b.replies()) {
+                    print(r.event());
+                    CompletableFuture<ServerEvent> reply = inflight.remove(r.id());
+                    if (reply != null) reply.complete(r.event());
+                }
+            }
+            case ServerEvent.Ping p -> {} // answered by ClientConnection
+            case ServerEvent.Other o -> System.out.println("[" + o.type() + "]");
+        }
+    }
+
+    private void seen(String conversation, long id) {
+        lastSeen.merge(conversation, id, Math::max);
+    }
+
+    /** Sync for the conversations seen, keeping the most recently active if there are more than the server takes. */
+    private Command.Sync syncCommand() {
+        Map<String, Long> since = new HashMap<>(lastSeen);
+        if (since.size() > CommandCodec.MAX_SYNC) {
+            List<Map.Entry<String, Long>> newest = new ArrayList<>(since.entrySet());
+            newest.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            since.clear();
+            for (Map.Entry<String, Long> e : newest.subList(0, CommandCodec.MAX_SYNC)) since.put(e.getKey(), e.getValue());
+        }
+        return new Command.Sync(since, SYNC_LIMIT);
+    }
+
+    public void start() {
+        Thread reader = new Thread(() -> {
+            while (true) {
+                try {
+                    ServerEvent e;
+                    while ((e = recv()) != null) print(e);
+                } catch (IOException e) {
+                    // fall through to reconnect
+                }
+                failInflight();
+                if (quitting) break;
                 System.out.println("Disconnected from server.");
+                if (!reconnect()) break;
             }
         });
         reader.setDaemon(true);
@@ -71,6 +230,10 @@ public class ChatClient {
         System.out.println("/msg <room> <text>");
         System.out.println("/pm <user> <text>");
         System.out.println("/history <target> [limit]");
+        System.out.println("/search <target> <words>");
+        System.out.println("/stats (admins)");
+        System.out.println("/sync (rooms and messages missed since the last one seen)");
+        System.out.println("/batch <command> ; <command> ...");
         System.out.println("/quit");
         try {
             while (true) {
@@ -78,53 +241,78 @@ public class ChatClient {
                 if (line == null) break;
                 line = line.trim();
                 if (line.isEmpty()) continue;
-                if (line.equals("/quit")) { sendJson(Map.of("cmd","quit")); break; }
-                else if (line.startsWith("/register ")) {
-                    String[] parts = line.split(" ",4);
-                    if (parts.length < 4) { System.out.println("Usage: /register <user> <pass> <token>"); continue; }
-                    sendJson(Map.of("cmd","register","username",parts[1],"password",parts[2],"token",parts[3]));
-                } else if (line.startsWith("/login ")) {
-                    String[] parts = line.split(" ",3);
-                    if (parts.length < 3) { System.out.println("Usage: /login <user> <pass>"); continue; }
-                    sendJson(Map.of("cmd","login","username",parts[1],"password",parts[2]));
-                } else if (line.startsWith("/join ")) {
-                    String[] parts = line.split(" ",2);
-                    sendJson(Map.of("cmd","join","room",parts[1]));
-                } else if (line.startsWith("/leave ")) {
-                    String[] parts = line.split(" ",2);
-                    sendJson(Map.of("cmd","leave","room",parts[1]));
-                } else if (line.equals("/rooms")) {
-                    sendJson(Map.of("cmd","rooms"));
-                } else if (line.startsWith("/msg ")) {
-                    String[] parts = line.split(" ",3);
-                    if (parts.length < 3) { System.out.println("Usage: /msg <room> <text>"); continue; }
-                    sendJson(Map.of("cmd","msg","room",parts[1],"text",parts[2]));
-                } else if (line.startsWith("/pm ")) {
-                    String[] parts = line.split(" ",3);
-                    if (parts.length < 3) { System.out.println("Usage: /pm <user> <text>"); continue; }
-                    sendJson(Map.of("cmd","pm","to",parts[1],"text",parts[2]));
-                } else if (line.startsWith("/history ")) {
-                    String[] parts = line.split(" ",3);
-                    if (parts.length == 2) sendJson(Map.of("cmd","history","target",parts[1]));
-                    else sendJson(Map.of("cmd","history","target",parts[1],"limit",Integer.parseInt(parts[2])));
-                } else {
-                    System.out.println("Unknown command");
+                if (line.equals("/quit")) { quitting = true; trySend(Command.QUIT); break; }
+                if (line.startsWith("/batch ")) {
+                    // every part goes out in one frame; replies arrive together
+                    for (String part : line.substring(7).split(";")) {
+                        Command c = parse(part.trim());
+                        if (c != null) pipeline(c);
+                    }
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        System.out.println("Send error: " + e.getMessage());
+                    }
+                    continue;
                 }
+                Command c = parse(line);
+                if (c != null) trySend(c);
             }
-        } catch (IOException e) {
-            System.out.println("Send error: " + e.getMessage());
         } finally {
-            try { socket.close(); } catch (IOException ignore) {}
+            try { conn.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    /** Turns one console line into a command, or prints usage and returns null. */
+    private Command parse(String line) {
+        if (line.startsWith("/register ")) {
+            String[] parts = line.split(" ",4);
+            if (parts.length < 4) { System.out.println("Usage: /register <user> <pass> <token>"); return null; }
+            return new Command.Register(parts[1], parts[2], parts[3]);
+        } else if (line.startsWith("/login ")) {
+            String[] parts = line.split(" ",3);
+            if (parts.length < 3) { System.out.println("Usage: /login <user> <pass>"); return null; }
+            return new Command.Login(parts[1], parts[2]);
+        } else if (line.startsWith("/join ")) {
+            String[] parts = line.split(" ",2);
+            return new Command.Join(parts[1]);
+        } else if (line.startsWith("/leave ")) {
+            String[] parts = line.split(" ",2);
+            return new Command.Leave(parts[1]);
+        } else if (line.equals("/rooms")) {
+            return Command.ROOMS;
+        } else if (line.startsWith("/msg ")) {
+            String[] parts = line.split(" ",3);
+            if (parts.length < 3) { System.out.println("Usage: /msg <room> <text>"); return null; }
+            return new Command.Msg(parts[1], parts[2]);
+        } else if (line.startsWith("/pm ")) {
+            String[] parts = line.split(" ",3);
+            if (parts.length < 3) { System.out.println("Usage: /pm <user> <text>"); return null; }
+            return new Command.Pm(parts[1], parts[2]);
+        } else if (line.equals("/stats")) {
+            return Command.STATS;
+        } else if (line.equals("/sync")) {
+            return syncCommand();
+        } else if (line.startsWith("/history ")) {
+            String[] parts = line.split(" ",3);
+            int limit = parts.length == 2 ? 50 : Integer.parseInt(parts[2]);
+            return new Command.History(parts[1], limit, null, null);
+        } else if (line.startsWith("/search ")) {
+            String[] parts = line.split(" ",3);
+            if (parts.length < 3) { System.out.println("Usage: /search <target> <words>"); return null; }
+            return new Command.Search(parts[1], parts[2], SEARCH_LIMIT, null);
         }
+        System.out.println("Unknown command");
+        return null;
     }
 
     public static void main(String[] args) throws Exception {
         if (args.length < 2) {
-            System.out.println("Usage: java -cp target/chat-system-1.0-SNAPSHOT.jar com.chatapp.client.ChatClient <host> <port>");
+            System.out.println("Usage: java -cp target/chat-system-1.0-SNAPSHOT.jar com.chatapp.client.ChatClient <host> <port> [json|binary]");
             return;
         }
         String host = args[0]; int port = Integer.parseInt(args[1]);
-        ChatClient c = new ChatClient(host, port);
+        ChatClient c = new ChatClient(host, port, args.length > 2 && "binary".equals(args[2]));
         c.start();
     }
 }
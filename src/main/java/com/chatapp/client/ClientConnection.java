@@ -0,0 +1,82 @@
+package com.chatapp.client;
+
+import com.chatapp.protocol.BinaryCodec;
+import com.chatapp.protocol.BinaryFrameReader;
+import com.chatapp.protocol.Command;
+import com.chatapp.protocol.CommandCodec;
+import com.chatapp.protocol.EventCodec;
+import com.chatapp.protocol.FrameReader;
+import com.chatapp.protocol.JsonLineReader;
+import com.chatapp.protocol.ServerEvent;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * ClientConnection is one socket to the server speaking either newline JSON or binary frames.
+ * With binary requested it sends the hello line and reads JSON until the server accepts
+ * (ok) or refuses (error); on refusal it stays on JSON. Events that arrive before the answer,
+ * such as the welcome message, are handed out by next() first. Server pings are answered
+ * here and never reach the caller.
+ */
+public class ClientConnection implements Closeable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final FrameReader<ServerEvent> in;
+    private final boolean binary;
+    private final Deque<ServerEvent> early = new ArrayDeque<>();
+
+    public ClientConnection(String host, int port, boolean wantBinary) throws IOException {
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        InputStream raw = new BufferedInputStream(socket.getInputStream());
+        this.binary = wantBinary && negotiate(raw);
+        this.in = binary
+                ? new BinaryFrameReader<>(raw, BinaryCodec::decodeEvent)
+                : new JsonLineReader<>(new InputStreamReader(raw, StandardCharsets.UTF_8), EventCodec::read);
+    }
+
+    /** Sends hello and reads lines byte-wise until its answer, so no frame byte is read ahead. */
+    private boolean negotiate(InputStream raw) throws IOException {
+        send(new Command.Hello(BinaryCodec.PROTO), false);
+        while (true) {
+            String line = BinaryFrameReader.readLine(raw, BinaryCodec.MAX_FRAME_BYTES);
+            if (line == null) throw new EOFException("connection closed during hello");
+            if (line.isBlank()) continue;
+            ServerEvent e = EventCodec.decode(line);
+            if (e instanceof ServerEvent.Ok) return true;
+            if (e instanceof ServerEvent.Error) return false;
+            early.add(e);
+        }
+    }
+
+    public boolean isBinary() { return binary; }
+
+    public void send(Command c) throws IOException {
+        send(c, binary);
+    }
+
+    private synchronized void send(Command c, boolean asFrame) throws IOException {
+        out.write(asFrame ? BinaryCodec.encode(c) : (CommandCodec.encode(c) + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /** Next server event, or null when the server closed the connection. */
+    public ServerEvent next() throws IOException {
+        while (true) {
+            ServerEvent e = early.poll();
+            if (e == null) e = in.next();
+            if (!(e instanceof ServerEvent.Ping)) return e;
+            send(Command.PONG);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,379 @@
+package com.chatapp.client;
+
+import com.chatapp.protocol.Command;
+import com.chatapp.protocol.ServerEvent;
+import com.chatapp.server.ChatServer;
+import com.chatapp.server.Storage;
+import com.chatapp.util.Histogram;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator. Opens many client connections (one virtual thread each),
+ * registers or logs in every user, joins rooms drawn from a uniform or Zipf distribution,
+ * then sends room messages at a fixed total rate. Each message carries its send time, so
+ * every receiver records send-to-receive latency. Results go to a JSON report.
+ *
+ * <pre>
+ * java -cp target/chat-system-1.0-SNAPSHOT.jar com.chatapp.client.LoadGenerator \
+ *      --port=5000 --connections=1000 --rooms=20 --room-dist=zipf --rate=2000 --duration=30
+ * </pre>
+ * With --auth=register it creates its own invites through Storage, so it needs the same
+ * storage settings as the server; --embedded starts a ChatServer in this JVM and shares its
+ * storage (with -Dchat.storage=memory no database is needed at all). --protocol=binary makes
+ * every connection switch to binary frames.
+ */
+public class LoadGenerator {
+    private static final String MARK = "lg:";
+
+    // ---- options ----
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int rooms;
+    private final int roomsPerUser;
+    private final String roomDist;
+    private final double zipfS;
+    private final int rate;
+    private final int durationSec;
+    private final int warmupSec;
+    private final String auth;
+    private final boolean binary;
+    private final String userPrefix;
+    private final String password;
+    private final Path report;
+
+    // ---- results ----
+    private final Histogram latency = new Histogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final AtomicLong expected = new AtomicLong();
+    private volatile boolean measuring = false;
+
+    private final List<Conn> conns = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> roomSizes = new ConcurrentHashMap<>();
+    private final Storage storage; // for invites; null = open one from Config when needed
+
+    LoadGenerator(Map<String, String> o, Storage storage) {
+        this.storage = storage;
+        host = o.getOrDefault("host", "localhost");
+        port = Integer.parseInt(o.getOrDefault("port", "5000"));
+        connections = Integer.parseInt(o.getOrDefault("connections", "1000"));
+        rooms = Integer.parseInt(o.getOrDefault("rooms", "10"));
+        roomsPerUser = Integer.parseInt(o.getOrDefault("rooms-per-user", "1"));
+        roomDist = o.getOrDefault("room-dist", "uniform");
+        zipfS = Double.parseDouble(o.getOrDefault("zipf-s", "1.0"));
+        rate = Integer.parseInt(o.getOrDefault("rate", "1000"));
+        durationSec = Integer.parseInt(o.getOrDefault("duration", "30"));
+        warmupSec = Integer.parseInt(o.getOrDefault("warmup", "5"));
+        auth = o.getOrDefault("auth", "register");
+        binary = "binary".equals(o.getOrDefault("protocol", "json"));
+        userPrefix = o.getOrDefault("user-prefix", "lg" + Long.toString(System.currentTimeMillis() % 1_000_000, 36) + "_");
+        password = o.getOrDefault("password", "loadtest");
+        report = Path.of(o.getOrDefault("report", "load-report.json"));
+    }
+
+    /** One simulated user: a socket, a reader virtual thread and a queue of command replies. */
+    private final class Conn {
+        final String user;
+        final ClientConnection conn;
+        final BlockingQueue<ServerEvent> replies = new LinkedBlockingQueue<>();
+        final List<String> joined = new ArrayList<>();
+        volatile boolean replyMode = true;
+
+        Conn(String user) throws IOException {
+            this.user = user;
+            this.conn = new ClientConnection(host, port, binary);
+            if (binary && !conn.isBinary()) throw new IOException("server refused binary frames");
+            Thread.ofVirtual().name("lg-read-" + user).start(this::readLoop);
+        }
+
+        void send(Command c) throws IOException {
+            conn.send(c);
+        }
+
+        /** Sends a command and waits for its ok/error reply. */
+        ServerEvent call(Command c) throws IOException, InterruptedException {
+            send(c);
+            ServerEvent e = replies.poll(60, TimeUnit.SECONDS);
+            if (e == null) throw new IOException("no reply to " + c.getClass().getSimpleName());
+            return e;
+        }
+
+        private void readLoop() {
+            try {
+                while (true) {
+                    ServerEvent e;
+                    try {
+                        e = conn.next();
+                    } catch (MalformedJsonException bad) {
+                        errors.increment();
+                        continue;
+                    }
+                    if (e == null) return;
+                    switch (e) {
+                        case ServerEvent.ServerMsg m -> onServerMsg(m.text());
+                        case ServerEvent.Error err -> {
+                            if (replyMode) replies.add(e);
+                            else errors.increment();
+                        }
+                        case ServerEvent.Ok ok -> { if (replyMode) replies.add(e); }
+                        default -> {}
+                    }
+                }
+            } catch (IOException e) {
+                // connection closed
+            }
+        }
+
+        private void onServerMsg(String text) {
+            int i = text.lastIndexOf(MARK);
+            if (i < 0) return; // welcome, join notices
+            long sentAt = Long.parseLong(text, i + MARK.length(), text.length(), 10);
+            received.increment();
+            if (measuring) latency.record(System.nanoTime() - sentAt);
+        }
+
+        void close() {
+            try { send(Command.QUIT); } catch (IOException ignore) {}
+            try { conn.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    // ---- phases ----
+
+    void run() throws Exception {
+        long t0 = System.nanoTime();
+        connectAll();
+        long connectedNs = System.nanoTime() - t0;
+        System.out.printf("connected %d/%d in %.1fs%n", conns.size(), connections, connectedNs / 1e9);
+
+        t0 = System.nanoTime();
+        authenticateAll();
+        joinRooms();
+        long setupNs = System.nanoTime() - t0;
+        System.out.printf("authenticated and joined in %.1fs, room sizes %s%n", setupNs / 1e9, summarizeRooms());
+        for (Conn c : conns) c.replyMode = false;
+
+        ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+        pace(senders, warmupSec);
+        long sentBefore = sent.sum(), receivedBefore = received.sum(), expectedBefore = expected.get();
+        measuring = true;
+        long m0 = System.nanoTime();
+        pace(senders, durationSec);
+        Thread.sleep(1000); // let in-flight messages land
+        measuring = false;
+        double seconds = (System.nanoTime() - m0) / 1e9 - 1.0;
+        senders.shutdown();
+
+        Map<String, Object> r = buildReport(connectedNs, setupNs, seconds,
+                sent.sum() - sentBefore, received.sum() - receivedBefore, expected.get() - expectedBefore);
+        String json = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(r);
+        Files.writeString(report, json);
+        System.out.println(json);
+        for (Conn c : conns) c.close();
+    }
+
+    private void connectAll() throws InterruptedException {
+        Semaphore inFlight = new Semaphore(200); // stay under the server's accept backlog
+        try (ExecutorService ex = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                String user = userPrefix + i;
+                inFlight.acquire();
+                ex.execute(() -> {
+                    try {
+                        conns.add(new Conn(user));
+                    } catch (IOException e) {
+                        errors.increment();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private void authenticateAll() throws Exception {
+        if ("register".equals(auth)) {
+            Storage s = storage != null ? storage : Storage.fromConfig();
+            for (Conn c : conns) s.createInvite("inv-" + c.user);
+        }
+        try (ExecutorService ex = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Conn c : conns) {
+                ex.execute(() -> {
+                    try {
+                        authenticate(c);
+                    } catch (Exception e) {
+                        errors.increment();
+                    }
+                });
+            }
+        }
+    }
+
+    private void authenticate(Conn c) throws IOException, InterruptedException {
+        c.replies.clear();
+        long backoff = 50;
+        while (true) {
+            Command cmd = "register".equals(auth)
+                    ? new Command.Register(c.user, password, "inv-" + c.user)
+                    : new Command.Login(c.user, password);
+            ServerEvent e = c.call(cmd);
+            if (e instanceof ServerEvent.Ok) return;
+            if (e instanceof ServerEvent.Error err && "Server busy, retry later".equals(err.msg())) {
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, 2_000);
+                continue;
+            }
+            throw new IOException(c.user + ": " + (e instanceof ServerEvent.Error err ? err.msg() : e));
+        }
+    }
+
+    private void joinRooms() throws Exception {
+        double[] cdf = roomCdf();
+        Random rnd = new Random(42);
+        for (Conn c : conns) {
+            int want = Math.min(roomsPerUser, rooms);
+            while (c.joined.size() < want) {
+                String room = "lg-room-" + pick(cdf, rnd);
+                if (!c.joined.contains(room)) c.joined.add(room);
+            }
+        }
+        try (ExecutorService ex = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Conn c : conns) {
+                ex.execute(() -> {
+                    try {
+                        for (String room : c.joined) {
+                            if (c.call(new Command.Join(room)) instanceof ServerEvent.Ok) roomSizes.merge(room, 1, Integer::sum);
+                            else errors.increment();
+                        }
+                    } catch (Exception e) {
+                        errors.increment();
+                    }
+                });
+            }
+        }
+    }
+
+    /** Cumulative probabilities for picking a room: uniform, or Zipf with exponent zipf-s. */
+    private double[] roomCdf() {
+        double[] w = new double[rooms];
+        for (int i = 0; i < rooms; i++) w[i] = "zipf".equals(roomDist) ? 1.0 / Math.pow(i + 1, zipfS) : 1.0;
+        double total = Arrays.stream(w).sum(), acc = 0;
+        double[] cdf = new double[rooms];
+        for (int i = 0; i < rooms; i++) cdf[i] = (acc += w[i]) / total;
+        return cdf;
+    }
+
+    private static int pick(double[] cdf, Random rnd) {
+        int i = Arrays.binarySearch(cdf, rnd.nextDouble());
+        return Math.min(i >= 0 ? i : -i - 1, cdf.length - 1);
+    }
+
+    /** Sends rate messages per second, spread over 1ms ticks, from random members of their rooms. */
+    private void pace(ExecutorService senders, int seconds) throws InterruptedException {
+        List<Conn> active = conns.stream().filter(c -> !c.joined.isEmpty()).toList();
+        if (active.isEmpty() || seconds <= 0) return;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long start = System.nanoTime(), end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long issued = 0;
+        while (System.nanoTime() < end) {
+            long due = (System.nanoTime() - start) * rate / 1_000_000_000L;
+            for (; issued < due; issued++) {
+                Conn c = active.get(rnd.nextInt(active.size()));
+                String room = c.joined.get(rnd.nextInt(c.joined.size()));
+                expected.addAndGet(roomSizes.getOrDefault(room, 1) - 1);
+                senders.execute(() -> {
+                    try {
+                        c.send(new Command.Msg(room, MARK + System.nanoTime()));
+                        sent.increment();
+                    } catch (IOException e) {
+                        sendFailures.increment();
+                    }
+                });
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private String summarizeRooms() {
+        IntSummaryStatistics s = roomSizes.values().stream().mapToInt(Integer::intValue).summaryStatistics();
+        return "min=" + s.getMin() + " max=" + s.getMax() + " rooms=" + s.getCount();
+    }
+
+    private Map<String, Object> buildReport(long connectNs, long setupNs, double seconds, long sentN, long receivedN, long expectedN) {
+        Map<String, Object> cfg = new LinkedHashMap<>();
+        cfg.put("host", host);
+        cfg.put("port", port);
+        cfg.put("connections", connections);
+        cfg.put("rooms", rooms);
+        cfg.put("rooms_per_user", roomsPerUser);
+        cfg.put("room_dist", roomDist + ("zipf".equals(roomDist) ? "(s=" + zipfS + ")" : ""));
+        cfg.put("target_rate", rate);
+        cfg.put("duration_s", durationSec);
+        cfg.put("warmup_s", warmupSec);
+        cfg.put("auth", auth);
+        cfg.put("protocol", binary ? "binary" : "json");
+
+        Map<String, Object> lat = new LinkedHashMap<>();
+        lat.put("samples", latency.getCount());
+        lat.put("p50_us", latency.percentile(0.50) / 1000.0);
+        lat.put("p90_us", latency.percentile(0.90) / 1000.0);
+        lat.put("p99_us", latency.percentile(0.99) / 1000.0);
+        lat.put("p999_us", latency.percentile(0.999) / 1000.0);
+        lat.put("max_us", latency.getMax() / 1000.0);
+
+        Map<String, Object> r = new LinkedHashMap<>();
+        r.put("config", cfg);
+        r.put("connected", conns.size());
+        r.put("connect_s", connectNs / 1e9);
+        r.put("setup_s", setupNs / 1e9);
+        r.put("room_sizes", new TreeMap<>(roomSizes));
+        r.put("measured_s", seconds);
+        r.put("sent", sentN);
+        r.put("sent_per_s", sentN / seconds);
+        r.put("delivered", receivedN);
+        r.put("delivered_per_s", receivedN / seconds);
+        r.put("expected_deliveries", expectedN);
+        r.put("errors", errors.sum());
+        r.put("send_failures", sendFailures.sum());
+        r.put("latency", lat);
+        return r;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> o = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--")) { System.out.println("Unexpected argument: " + a); return; }
+            int eq = a.indexOf('=');
+            o.put(eq < 0 ? a.substring(2) : a.substring(2, eq), eq < 0 ? "true" : a.substring(eq + 1));
+        }
+        if (o.containsKey("help")) {
+            System.out.println("Options: --host --port --connections --rooms --rooms-per-user --room-dist=uniform|zipf --zipf-s"
+                    + " --rate --duration --warmup --auth=register|login --user-prefix --password --report --protocol=json|binary --embedded[=threads|virtual|nio]");
+            return;
+        }
+        Storage storage = null;
+        if (o.containsKey("embedded")) {
+            storage = Storage.fromConfig();
+            String mode = "true".equals(o.get("embedded")) ? "nio" : o.get("embedded");
+            ChatServer server = new ChatServer(Integer.parseInt(o.getOrDefault("port", "5000")), mode, storage);
+            Thread.ofPlatform().daemon().name("embedded-server").start(() -> {
+                try { server.serve(); } catch (IOException e) { e.printStackTrace(); }
+            });
+            Thread.sleep(500);
+        }
+        new LoadGenerator(o, storage).run();
+        System.exit(0);
+    }
+}
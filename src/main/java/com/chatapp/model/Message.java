@@ -1,18 +1,25 @@
 package com.chatapp.model;
 
 public class Message {
+    private final long id; // 0 = assigned by the database
     private final String sender;
     private final String receiver;
     private final boolean isRoom;
     private final String text;
 
     public Message(String sender, String receiver, boolean isRoom, String text) {
+        this(0, sender, receiver, isRoom, text);
+    }
+
+    public Message(long id, String sender, String receiver, boolean isRoom, String text) {
+        this.id = id;
         this.sender = sender;
         this.receiver = receiver;
         this.isRoom = isRoom;
         this.text = text;
     }
 
+    public long getId() { return id; }
     public String getSender() { return sender; }
     public String getReceiver() { return receiver; }
     public boolean isRoom() { return isRoom; }
@@ -20,6 +27,6 @@ public class Message {
 
     @Override
     public String toString() {
-        return "Message{" + "sender='" + sender + '\'' + ", receiver='" + receiver + '\'' + ", isRoom=" + isRoom + ", text='" + text + '\'' + '}';
+        return "Message{" + "id=" + id + ", sender='" + sender + '\'' + ", receiver='" + receiver + '\'' + ", isRoom=" + isRoom + ", text='" + text + '\'' + '}';
     }
 }
@@ -0,0 +1,349 @@
+package com.chatapp.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BinaryCodec is the compact wire format. A frame is the body length as a varint followed by
+ * the body: a one-byte opcode and the fields in a fixed order. Numbers are unsigned LEB128
+ * varints, strings are a varint byte length plus UTF-8, and optional values are shifted by one
+ * so that 0 means absent. A batch nests complete frames: a count, then per item its id and
+ * the item's own length-prefixed frame. Items are decoded in place, and a batch inside a
+ * batch item decodes as invalid (commands) or other (events), so nesting never recurses.
+ *
+ * Every connection starts with newline JSON. A client switches by sending
+ * {"cmd":"hello","proto":"binary"} as its first line; the server answers ok (still as JSON)
+ * and from then on both directions use frames. A server that does not know "hello" answers
+ * with an error, and the client stays on JSON.
+ */
+public final class BinaryCodec {
+    public static final String PROTO = "binary";
+    public static final int MAX_FRAME_BYTES = 1 << 20;
+
+    // client -> server
+    private static final byte REGISTER = 1, LOGIN = 2, RESUME = 3, JOIN = 4, LEAVE = 5, ROOMS = 6,
+            MSG = 7, PM = 8, HISTORY = 9, QUIT = 10, STATS = 11, BATCH = 12, SYNC = 13, PONG = 14, SEARCH = 15;
+    // server -> client
+    private static final byte OK = 1, ERROR = 2, SERVER_MSG = 3, ROOM_LIST = 4, HISTORY_PAGE = 5, STATS_TEXT = 6, BATCH_REPLY = 7, PING = 8, SEARCH_RESULTS = 9;
+
+    private BinaryCodec() {}
+
+    public static boolean isHello(Command c) {
+        return c instanceof Command.Hello h && PROTO.equals(h.proto());
+    }
+
+    /** True if this JSON line is a hello asking for binary frames; cheap for every other line. */
+    public static boolean requestsBinary(String line) {
+        return line.contains("hello") && isHello(CommandCodec.decode(line));
+    }
+
+    // ========== Commands ==========
+
+    /** Encodes a command as one complete frame, length prefix included. */
+    public static byte[] encode(Command c) {
+        Out o = new Out(32);
+        switch (c) {
+            case Command.Register r -> o.op(REGISTER).str(r.username()).str(r.password()).str(r.token());
+            case Command.Login l -> o.op(LOGIN).str(l.username()).str(l.password());
+            case Command.Resume r -> o.op(RESUME).str(r.token());
+            case Command.Join j -> o.op(JOIN).str(j.room());
+            case Command.Leave l -> o.op(LEAVE).str(l.room());
+            case Command.Rooms r -> o.op(ROOMS);
+            case Command.Msg m -> o.op(MSG).str(m.room()).str(m.text());
+            case Command.Pm p -> o.op(PM).str(p.to()).str(p.text());
+            case Command.History h -> o.op(HISTORY).str(h.target()).varint(h.limit()).optLong(h.beforeId()).optLong(h.afterId());
+            case Command.Search s -> o.op(SEARCH).str(s.target()).str(s.query()).varint(s.limit()).optLong(s.beforeId());
+            case Command.Quit q -> o.op(QUIT);
+            case Command.Pong p -> o.op(PONG);
+            case Command.Stats s -> o.op(STATS);
+            case Command.Sync y -> {
+                o.op(SYNC).varint(y.limit()).varint(y.since().size());
+                for (Map.Entry<String, Long> e : y.since().entrySet()) o.str(e.getKey()).varint(e.getValue());
+            }
+            case Command.Batch b -> {
+                o.op(BATCH).varint(b.commands().size());
+                for (Command.Item item : b.commands()) o.varint(item.id()).raw(encode(item.command()));
+            }
+            case Command.Hello h -> throw new IllegalArgumentException("hello is sent as JSON");
+            case Command.Unknown u -> throw new IllegalArgumentException("cannot encode an unknown command");
+            case Command.Invalid i -> throw new IllegalArgumentException("cannot encode an invalid command");
+        }
+        return o.frame();
+    }
+
+    /** Decodes a frame body; a truncated or unknown frame becomes Invalid or Unknown. */
+    public static Command decodeCommand(byte[] body) {
+        return decodeCommand(new In(body, 0, body.length), false);
+    }
+
+    private static Command decodeCommand(In in, boolean inBatch) {
+        try {
+            byte op = in.op();
+            return switch (op) {
+                case REGISTER -> new Command.Register(in.str(), in.str(), in.str());
+                case LOGIN -> new Command.Login(in.str(), in.str());
+                case RESUME -> new Command.Resume(in.str());
+                case JOIN -> new Command.Join(in.str());
+                case LEAVE -> new Command.Leave(in.str());
+                case ROOMS -> Command.ROOMS;
+                case MSG -> {
+                    Command.Msg m = new Command.Msg(in.str(), in.str());
+                    yield CommandCodec.limitText(m, m.text());
+                }
+                case PM -> {
+                    Command.Pm p = new Command.Pm(in.str(), in.str());
+                    yield CommandCodec.limitText(p, p.text());
+                }
+                case HISTORY -> new Command.History(in.str(), (int) in.varint(), in.optLong(), in.optLong());
+                case SEARCH -> new Command.Search(in.str(), in.str(), (int) in.varint(), in.optLong());
+                case QUIT -> Command.QUIT;
+                case PONG -> Command.PONG;
+                case STATS -> Command.STATS;
+                case SYNC -> {
+                    int limit = (int) in.varint();
+                    long n = in.varint();
+                    if (n < 0 || n > CommandCodec.MAX_SYNC) yield new Command.Invalid("sync is limited to " + CommandCodec.MAX_SYNC + " conversations");
+                    Map<String, Long> since = new LinkedHashMap<>();
+                    for (long i = 0; i < n; i++) since.put(in.str(), in.varint());
+                    yield new Command.Sync(since, limit);
+                }
+                case BATCH -> {
+                    if (inBatch) yield new Command.Invalid("batch cannot be nested");
+                    long n = in.varint();
+                    if (n < 0 || n > CommandCodec.MAX_BATCH) yield new Command.Invalid("batch is limited to " + CommandCodec.MAX_BATCH + " commands");
+                    List<Command.Item> items = new ArrayList<>((int) n);
+                    for (long i = 0; i < n; i++) items.add(new Command.Item(in.varint(), decodeCommand(in.frame(), true)));
+                    yield new Command.Batch(items);
+                }
+                default -> new Command.Unknown("opcode " + op);
+            };
+        } catch (IndexOutOfBoundsException e) {
+            return new Command.Invalid("Malformed frame");
+        }
+    }
+
+    // ========== Events ==========
+
+    /** Encodes a server event as one complete frame, length prefix included. */
+    public static byte[] encode(ServerEvent e) {
+        Out o = new Out(64);
+        switch (e) {
+            case ServerEvent.Ok ok -> o.op(OK).str(ok.msg()).optStr(ok.session());
+            case ServerEvent.Error err -> o.op(ERROR).str(err.msg());
+            case ServerEvent.ServerMsg m -> o.op(SERVER_MSG).str(m.text()).optStr(m.target()).optLong(m.id());
+            case ServerEvent.RoomList r -> {
+                o.op(ROOM_LIST).varint(r.rooms().size());
+                for (String room : r.rooms()) o.str(room);
+            }
+            case ServerEvent.History h -> {
+                o.op(HISTORY_PAGE).str(h.target()).optLong(h.nextBeforeId()).optLong(h.nextAfterId());
+                entries(o, h.messages());
+            }
+            case ServerEvent.SearchResults s -> {
+                o.op(SEARCH_RESULTS).str(s.target()).str(s.query()).optLong(s.nextBeforeId());
+                entries(o, s.messages());
+            }
+            case ServerEvent.Stats s -> o.op(STATS_TEXT).str(s.text());
+            case ServerEvent.Batch b -> {
+                o.op(BATCH_REPLY).varint(b.replies().size());
+                for (ServerEvent.Reply reply : b.replies()) o.varint(reply.id()).raw(encode(reply.event()));
+            }
+            case ServerEvent.Ping p -> o.op(PING);
+            case ServerEvent.Other other -> throw new IllegalArgumentException("cannot encode event " + other.type());
+        }
+        return o.frame();
+    }
+
+    public static ServerEvent decodeEvent(byte[] body) {
+        return decodeEvent(new In(body, 0, body.length), false);
+    }
+
+    private static ServerEvent decodeEvent(In in, boolean inBatch) {
+        try {
+            byte op = in.op();
+            return switch (op) {
+                case OK -> new ServerEvent.Ok(in.str(), in.optStr());
+                case ERROR -> new ServerEvent.Error(in.str());
+                case SERVER_MSG -> new ServerEvent.ServerMsg(in.str(), in.optStr(), in.optLong());
+                case ROOM_LIST -> {
+                    long n = in.varint();
+                    List<String> rooms = new ArrayList<>();
+                    for (long i = 0; i < n; i++) rooms.add(in.str());
+                    yield new ServerEvent.RoomList(rooms);
+                }
+                case HISTORY_PAGE -> {
+                    String target = in.str();
+                    Long before = in.optLong(), after = in.optLong();
+                    yield new ServerEvent.History(target, entries(in), before, after);
+                }
+                case SEARCH_RESULTS -> {
+                    String target = in.str(), query = in.str();
+                    Long before = in.optLong();
+                    yield new ServerEvent.SearchResults(target, query, entries(in), before);
+                }
+                case STATS_TEXT -> new ServerEvent.Stats(in.str());
+                case PING -> ServerEvent.PING;
+                case BATCH_REPLY -> {
+                    if (inBatch) yield new ServerEvent.Other("nested batch");
+                    long n = in.varint();
+                    List<ServerEvent.Reply> replies = new ArrayList<>();
+                    for (long i = 0; i < n; i++) replies.add(new ServerEvent.Reply(in.varint(), decodeEvent(in.frame(), true)));
+                    yield new ServerEvent.Batch(replies);
+                }
+                default -> new ServerEvent.Other("opcode " + op);
+            };
+        } catch (IndexOutOfBoundsException e) {
+            return new ServerEvent.Other("malformed");
+        }
+    }
+
+    private static void entries(Out o, List<ServerEvent.Entry> messages) {
+        o.varint(messages.size());
+        for (ServerEvent.Entry m : messages) o.varint(m.id()).str(m.sender()).str(m.receiver()).str(m.text()).str(m.ts());
+    }
+
+    private static List<ServerEvent.Entry> entries(In in) {
+        long n = in.varint();
+        List<ServerEvent.Entry> messages = new ArrayList<>();
+        for (long i = 0; i < n; i++) messages.add(new ServerEvent.Entry(in.varint(), in.str(), in.str(), in.str(), in.str()));
+        return messages;
+    }
+
+    // ========== Fields ==========
+
+    /** Growable frame buffer; the body starts after room for the longest length prefix. */
+    private static final class Out {
+        private static final int PREFIX = 3; // varint of MAX_FRAME_BYTES
+        private byte[] buf;
+        private int len = PREFIX;
+
+        Out(int capacity) { buf = new byte[PREFIX + capacity]; }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+
+        Out op(byte op) {
+            ensure(1);
+            buf[len++] = op;
+            return this;
+        }
+
+        Out varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+            return this;
+        }
+
+        Out str(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+            return this;
+        }
+
+        Out optStr(String s) {
+            if (s == null) return varint(0);
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length + 1L);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+            return this;
+        }
+
+        /** Appends bytes as they are, e.g. a nested frame that carries its own length. */
+        Out raw(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+            return this;
+        }
+
+        Out optLong(Long v) {
+            return varint(v == null ? 0 : v + 1);
+        }
+
+        /** Writes the length prefix right before the body and returns the frame. */
+        byte[] frame() {
+            int body = len - PREFIX;
+            if (body > MAX_FRAME_BYTES) throw new IllegalArgumentException("frame of " + body + " bytes is too large");
+            int n = body < 1 << 7 ? 1 : body < 1 << 14 ? 2 : 3;
+            int start = PREFIX - n;
+            for (int i = start, v = body; i < PREFIX; i++, v >>>= 7) {
+                buf[i] = (byte) (i < PREFIX - 1 ? (v & 0x7F) | 0x80 : v);
+            }
+            return Arrays.copyOfRange(buf, start, len);
+        }
+    }
+
+    /** Cursor over a frame body in b[pos, end); reading past the end throws IndexOutOfBoundsException. */
+    private static final class In {
+        private final byte[] b;
+        private final int end;
+        private int pos;
+
+        In(byte[] b, int pos, int end) {
+            this.b = b;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        private byte next() {
+            if (pos >= end) throw new IndexOutOfBoundsException("read past end of frame");
+            return b[pos++];
+        }
+
+        byte op() { return next(); }
+
+        long varint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte x = next();
+                v |= (long) (x & 0x7F) << shift;
+                if (x >= 0) return v;
+            }
+            throw new IndexOutOfBoundsException("varint too long");
+        }
+
+        String str() {
+            return str(varint());
+        }
+
+        private String str(long n) {
+            if (n < 0 || n > end - pos) throw new IndexOutOfBoundsException("string past end of frame");
+            String s = new String(b, pos, (int) n, StandardCharsets.UTF_8);
+            pos += (int) n;
+            return s;
+        }
+
+        /** A cursor over the nested length-prefixed frame here, sharing the array; skips past it. */
+        In frame() {
+            long n = varint();
+            if (n < 0 || n > end - pos) throw new IndexOutOfBoundsException("frame past end of frame");
+            In nested = new In(b, pos, pos + (int) n);
+            pos += (int) n;
+            return nested;
+        }
+
+        String optStr() {
+            long n = varint();
+            return n == 0 ? null : str(n - 1);
+        }
+
+        Long optLong() {
+            long v = varint();
+            return v == 0 ? null : v - 1;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.chatapp.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * BinaryFrameReader reads length-prefixed frames (see BinaryCodec) from a byte stream.
+ * readLine reads the JSON lines exchanged before the switch to frames straight from the same
+ * stream, so no byte after the handshake is consumed by a character decoder.
+ */
+public class BinaryFrameReader<T> implements FrameReader<T> {
+    private final InputStream in;
+    private final Function<byte[], T> decoder;
+
+    /** in should be buffered; it is read a byte at a time for the length prefix. */
+    public BinaryFrameReader(InputStream in, Function<byte[], T> decoder) {
+        this.in = in;
+        this.decoder = decoder;
+    }
+
+    /** Returns the next frame, or null at end of stream. An oversized frame is an IOException. */
+    @Override
+    public T next() throws IOException {
+        int len = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) return null;
+                throw new EOFException("stream ended inside a frame length");
+            }
+            len |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            if (shift >= 21) throw new IOException("frame length too long");
+        }
+        if (len > BinaryCodec.MAX_FRAME_BYTES) throw new IOException("frame of " + len + " bytes is too large");
+        byte[] body = in.readNBytes(len);
+        if (body.length < len) throw new EOFException("stream ended inside a frame");
+        return decoder.apply(body);
+    }
+
+    /** Reads one UTF-8 line without its terminator, or returns null at end of stream. */
+    public static String readLine(InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            if (line.size() >= maxBytes) throw new IOException("line longer than " + maxBytes + " bytes");
+            line.write(b);
+        }
+        int n = line.size();
+        byte[] bytes = line.toByteArray();
+        if (n > 0 && bytes[n - 1] == '\r') n--;
+        return new String(bytes, 0, n, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,41 @@
+package com.chatapp.protocol;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command is one decoded client request, one record per "cmd".
+ * Invalid and Unknown carry lines that could not be turned into a real command.
+ */
+public sealed interface Command {
+    /** Optional first command: asks to switch the connection to another wire format (see BinaryCodec). */
+    record Hello(String proto) implements Command {}
+    record Register(String username, String password, String token) implements Command {}
+    record Login(String username, String password) implements Command {}
+    record Resume(String token) implements Command {}
+    record Join(String room) implements Command {}
+    record Leave(String room) implements Command {}
+    record Rooms() implements Command {}
+    record Msg(String room, String text) implements Command {}
+    record Pm(String to, String text) implements Command {}
+    record History(String target, int limit, Long beforeId, Long afterId) implements Command {}
+    /** Newest messages of one conversation containing every word of query, older than beforeId if set. */
+    record Search(String target, String query, int limit, Long beforeId) implements Command {}
+    /** Restores the user's rooms and fetches what was missed; since maps a room or PM partner to the last id seen. */
+    record Sync(Map<String, Long> since, int limit) implements Command {}
+    record Quit() implements Command {}
+    /** Answer to a server ping; any command proves the client is alive, this one does nothing else. */
+    record Pong() implements Command {}
+    record Stats() implements Command {}
+    /** Commands run in order and answered with one ServerEvent.Batch; each reply carries its item's id. */
+    record Batch(List<Item> commands) implements Command {}
+    record Unknown(String cmd) implements Command {}
+    record Invalid(String error) implements Command {}
+
+    record Item(long id, Command command) {}
+
+    Rooms ROOMS = new Rooms();
+    Quit QUIT = new Quit();
+    Stats STATS = new Stats();
+    Pong PONG = new Pong();
+}
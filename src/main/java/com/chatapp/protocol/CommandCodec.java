@@ -0,0 +1,214 @@
+package com.chatapp.protocol;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CommandCodec converts between client commands and their JSON form with Gson's streaming
+ * JsonReader/JsonWriter: fields are read straight into the command record, with no
+ * intermediate Map, boxed Double or lower-cased copy of "cmd".
+ */
+public final class CommandCodec {
+    private static final int DEFAULT_HISTORY_LIMIT = 50;
+    /** Most commands the server accepts in one batch. */
+    public static final int MAX_BATCH = 64;
+    /** Most conversations one sync may name. */
+    public static final int MAX_SYNC = 256;
+    /** Longest msg or pm text in chars; any frame carrying one stays well inside BinaryCodec.MAX_FRAME_BYTES. */
+    public static final int MAX_TEXT = 16_384;
+
+    private CommandCodec() {}
+
+    /** Decodes one command from a single line. */
+    public static Command decode(String line) {
+        JsonReader r = new JsonReader(new StringReader(line));
+        r.setStrictness(Strictness.LENIENT);
+        try {
+            if (r.peek() != JsonToken.BEGIN_OBJECT) return new Command.Invalid("Invalid JSON");
+            return read(r);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return new Command.Invalid("Invalid JSON");
+        }
+    }
+
+    /** Reads one JSON object positioned at BEGIN_OBJECT. Unknown fields are skipped. */
+    public static Command read(JsonReader r) throws IOException {
+        String cmd = null, username = "", password = "", token = "", room = "", text = "", to = "", target = "", proto = "", query = "";
+        int limit = DEFAULT_HISTORY_LIMIT;
+        Long beforeId = null, afterId = null;
+        List<Command.Item> commands = List.of();
+        Map<String, Long> since = Map.of();
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+            switch (name) {
+                case "cmd" -> cmd = r.nextString();
+                case "username" -> username = r.nextString();
+                case "password" -> password = r.nextString();
+                case "token" -> token = r.nextString();
+                case "room" -> room = r.nextString();
+                case "text" -> text = r.nextString();
+                case "to" -> to = r.nextString();
+                case "target" -> target = r.nextString();
+                case "proto" -> proto = r.nextString();
+                case "query" -> query = r.nextString();
+                case "limit" -> limit = (int) r.nextDouble();
+                case "before_id" -> beforeId = r.nextLong();
+                case "after_id" -> afterId = r.nextLong();
+                case "commands" -> commands = readItems(r);
+                case "since" -> since = readSince(r);
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        if (cmd == null) return new Command.Invalid("Missing cmd");
+        return switch (kind(cmd)) {
+            case "hello" -> new Command.Hello(proto);
+            case "register" -> new Command.Register(username, password, token);
+            case "login" -> new Command.Login(username, password);
+            case "resume" -> new Command.Resume(token);
+            case "join" -> new Command.Join(room);
+            case "leave" -> new Command.Leave(room);
+            case "rooms" -> Command.ROOMS;
+            case "stats" -> Command.STATS;
+            case "msg" -> limitText(new Command.Msg(room, text), text);
+            case "pm" -> limitText(new Command.Pm(to, text), text);
+            case "history" -> new Command.History(target, limit, beforeId, afterId);
+            case "search" -> new Command.Search(target, query, limit, beforeId);
+            case "quit" -> Command.QUIT;
+            case "pong" -> Command.PONG;
+            case "batch" -> new Command.Batch(commands);
+            case "sync" -> since == null ? new Command.Invalid("sync is limited to " + MAX_SYNC + " conversations")
+                    : new Command.Sync(since, limit);
+            default -> new Command.Unknown(cmd.toLowerCase());
+        };
+    }
+
+    /** Reads [{"id":1,"command":{...}}, ...]; an item without a command becomes Invalid. */
+    private static List<Command.Item> readItems(JsonReader r) throws IOException {
+        List<Command.Item> items = new ArrayList<>();
+        r.beginArray();
+        while (r.hasNext()) {
+            long id = 0;
+            Command c = new Command.Invalid("Missing command");
+            r.beginObject();
+            while (r.hasNext()) {
+                String name = r.nextName();
+                if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+                switch (name) {
+                    case "id" -> id = r.nextLong();
+                    case "command" -> c = read(r);
+                    default -> r.skipValue();
+                }
+            }
+            r.endObject();
+            items.add(new Command.Item(id, c));
+        }
+        r.endArray();
+        return items;
+    }
+
+    /** The command, or Invalid if its text is longer than MAX_TEXT. */
+    static Command limitText(Command c, String text) {
+        return text != null && text.length() > MAX_TEXT ? new Command.Invalid("text is limited to " + MAX_TEXT + " characters") : c;
+    }
+
+    /** Reads {"general":120,"bob":98}: conversation to last message id seen. Null if it names more than MAX_SYNC. */
+    private static Map<String, Long> readSince(JsonReader r) throws IOException {
+        Map<String, Long> since = new LinkedHashMap<>();
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+            if (since != null && since.size() == MAX_SYNC) since = null;
+            if (since == null) { r.skipValue(); continue; }
+            since.put(name, r.nextLong());
+        }
+        r.endObject();
+        return since;
+    }
+
+    /** Commands are matched case-insensitively; the common lower-case spelling needs no copy. */
+    private static String kind(String cmd) {
+        for (int i = 0; i < cmd.length(); i++) {
+            if (Character.isUpperCase(cmd.charAt(i))) return cmd.toLowerCase();
+        }
+        return cmd;
+    }
+
+    /** Encodes a command as one line of JSON, without the trailing newline. */
+    public static String encode(Command c) {
+        StringWriter sw = new StringWriter(64);
+        try {
+            write(c, sw);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    public static void write(Command c, Writer out) throws IOException {
+        JsonWriter w = new JsonWriter(out);
+        write(c, w);
+        w.flush();
+    }
+
+    private static void write(Command c, JsonWriter w) throws IOException {
+        w.beginObject();
+        switch (c) {
+            case Command.Hello h -> { w.name("cmd").value("hello"); w.name("proto").value(h.proto()); }
+            case Command.Register r -> { w.name("cmd").value("register"); w.name("username").value(r.username()); w.name("password").value(r.password()); w.name("token").value(r.token()); }
+            case Command.Login l -> { w.name("cmd").value("login"); w.name("username").value(l.username()); w.name("password").value(l.password()); }
+            case Command.Resume r -> { w.name("cmd").value("resume"); w.name("token").value(r.token()); }
+            case Command.Join j -> { w.name("cmd").value("join"); w.name("room").value(j.room()); }
+            case Command.Leave l -> { w.name("cmd").value("leave"); w.name("room").value(l.room()); }
+            case Command.Rooms r -> w.name("cmd").value("rooms");
+            case Command.Stats s -> w.name("cmd").value("stats");
+            case Command.Msg m -> { w.name("cmd").value("msg"); w.name("room").value(m.room()); w.name("text").value(m.text()); }
+            case Command.Pm p -> { w.name("cmd").value("pm"); w.name("to").value(p.to()); w.name("text").value(p.text()); }
+            case Command.History h -> {
+                w.name("cmd").value("history"); w.name("target").value(h.target()); w.name("limit").value(h.limit());
+                if (h.beforeId() != null) w.name("before_id").value(h.beforeId());
+                if (h.afterId() != null) w.name("after_id").value(h.afterId());
+            }
+            case Command.Search s -> {
+                w.name("cmd").value("search"); w.name("target").value(s.target()); w.name("query").value(s.query());
+                w.name("limit").value(s.limit());
+                if (s.beforeId() != null) w.name("before_id").value(s.beforeId());
+            }
+            case Command.Sync y -> {
+                w.name("cmd").value("sync"); w.name("limit").value(y.limit());
+                w.name("since").beginObject();
+                for (Map.Entry<String, Long> e : y.since().entrySet()) w.name(e.getKey()).value(e.getValue());
+                w.endObject();
+            }
+            case Command.Quit q -> w.name("cmd").value("quit");
+            case Command.Pong p -> w.name("cmd").value("pong");
+            case Command.Batch b -> {
+                w.name("cmd").value("batch"); w.name("commands").beginArray();
+                for (Command.Item item : b.commands()) {
+                    w.beginObject();
+                    w.name("id").value(item.id());
+                    w.name("command"); write(item.command(), w);
+                    w.endObject();
+                }
+                w.endArray();
+            }
+            case Command.Unknown u -> w.name("cmd").value(u.cmd());
+            case Command.Invalid i -> throw new IllegalArgumentException("cannot encode an invalid command");
+        }
+        w.endObject();
+    }
+}
@@ -0,0 +1,202 @@
+package com.chatapp.protocol;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * EventCodec converts between ServerEvent records and their JSON form with a streaming
+ * JsonReader/JsonWriter; the server encodes with it, clients decode with it.
+ */
+public final class EventCodec {
+    private EventCodec() {}
+
+    /** Decodes one event from a single line; a malformed line becomes Other("invalid"). */
+    public static ServerEvent decode(String line) {
+        JsonReader r = new JsonReader(new StringReader(line));
+        r.setStrictness(Strictness.LENIENT);
+        try {
+            if (r.peek() != JsonToken.BEGIN_OBJECT) return new ServerEvent.Other("invalid");
+            return read(r);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return new ServerEvent.Other("invalid");
+        }
+    }
+
+    /** Reads one JSON object positioned at BEGIN_OBJECT. Unknown fields are skipped. */
+    public static ServerEvent read(JsonReader r) throws IOException {
+        String type = null, msg = null, text = null, target = null, session = null, query = null;
+        List<String> rooms = null;
+        List<ServerEvent.Entry> messages = null;
+        List<ServerEvent.Reply> replies = null;
+        Long id = null, nextBefore = null, nextAfter = null;
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+            switch (name) {
+                case "type" -> type = r.nextString();
+                case "msg" -> msg = r.nextString();
+                case "text" -> text = r.nextString();
+                case "target" -> target = r.nextString();
+                case "session" -> session = r.nextString();
+                case "query" -> query = r.nextString();
+                case "id" -> id = r.nextLong();
+                case "rooms" -> {
+                    rooms = new ArrayList<>();
+                    r.beginArray();
+                    while (r.hasNext()) rooms.add(r.nextString());
+                    r.endArray();
+                }
+                case "messages" -> {
+                    messages = new ArrayList<>();
+                    r.beginArray();
+                    while (r.hasNext()) messages.add(readEntry(r));
+                    r.endArray();
+                }
+                case "replies" -> {
+                    replies = new ArrayList<>();
+                    r.beginArray();
+                    while (r.hasNext()) replies.add(readReply(r));
+                    r.endArray();
+                }
+                case "next_before_id" -> nextBefore = r.nextLong();
+                case "next_after_id" -> nextAfter = r.nextLong();
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        if (type == null) return new ServerEvent.Other(null);
+        return switch (type) {
+            case "ok" -> new ServerEvent.Ok(msg, session);
+            case "error" -> new ServerEvent.Error(msg);
+            case "server_msg" -> new ServerEvent.ServerMsg(text, target, id);
+            case "rooms" -> new ServerEvent.RoomList(rooms != null ? rooms : List.of());
+            case "stats" -> new ServerEvent.Stats(text);
+            case "history" -> new ServerEvent.History(target, messages != null ? messages : List.of(), nextBefore, nextAfter);
+            case "search_results" -> new ServerEvent.SearchResults(target, query, messages != null ? messages : List.of(), nextBefore);
+            case "ping" -> ServerEvent.PING;
+            case "batch" -> new ServerEvent.Batch(replies != null ? replies : List.of());
+            default -> new ServerEvent.Other(type);
+        };
+    }
+
+    private static ServerEvent.Entry readEntry(JsonReader r) throws IOException {
+        long id = 0;
+        String sender = null, receiver = null, text = null, ts = null;
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+            switch (name) {
+                case "id" -> id = r.nextLong();
+                case "sender" -> sender = r.nextString();
+                case "receiver" -> receiver = r.nextString();
+                case "text" -> text = r.nextString();
+                case "ts" -> ts = r.nextString();
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        return new ServerEvent.Entry(id, sender, receiver, text, ts);
+    }
+
+    private static ServerEvent.Reply readReply(JsonReader r) throws IOException {
+        long id = 0;
+        ServerEvent reply = new ServerEvent.Other(null);
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+            switch (name) {
+                case "id" -> id = r.nextLong();
+                case "reply" -> reply = read(r);
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        return new ServerEvent.Reply(id, reply);
+    }
+
+    /** Encodes an event as one line of JSON, without the trailing newline. */
+    public static String encode(ServerEvent e) {
+        StringWriter sw = new StringWriter(96);
+        try {
+            write(e, sw);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex); // StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    public static void write(ServerEvent e, Writer out) throws IOException {
+        JsonWriter w = new JsonWriter(out);
+        write(e, w);
+        w.flush();
+    }
+
+    private static void write(ServerEvent e, JsonWriter w) throws IOException {
+        w.beginObject();
+        switch (e) {
+            case ServerEvent.Ok ok -> {
+                w.name("type").value("ok"); w.name("msg").value(ok.msg());
+                if (ok.session() != null) w.name("session").value(ok.session());
+            }
+            case ServerEvent.Error err -> { w.name("type").value("error"); w.name("msg").value(err.msg()); }
+            case ServerEvent.ServerMsg m -> {
+                w.name("type").value("server_msg"); w.name("text").value(m.text());
+                if (m.target() != null) w.name("target").value(m.target());
+                if (m.id() != null) w.name("id").value(m.id());
+            }
+            case ServerEvent.RoomList r -> {
+                w.name("type").value("rooms"); w.name("rooms").beginArray();
+                for (String room : r.rooms()) w.value(room);
+                w.endArray();
+            }
+            case ServerEvent.History h -> {
+                w.name("type").value("history"); w.name("target").value(h.target());
+                writeEntries(h.messages(), w);
+                if (h.nextBeforeId() != null) w.name("next_before_id").value(h.nextBeforeId());
+                if (h.nextAfterId() != null) w.name("next_after_id").value(h.nextAfterId());
+            }
+            case ServerEvent.SearchResults s -> {
+                w.name("type").value("search_results"); w.name("target").value(s.target()); w.name("query").value(s.query());
+                writeEntries(s.messages(), w);
+                if (s.nextBeforeId() != null) w.name("next_before_id").value(s.nextBeforeId());
+            }
+            case ServerEvent.Stats s -> { w.name("type").value("stats"); w.name("text").value(s.text()); }
+            case ServerEvent.Batch b -> {
+                w.name("type").value("batch"); w.name("replies").beginArray();
+                for (ServerEvent.Reply reply : b.replies()) {
+                    w.beginObject();
+                    w.name("id").value(reply.id());
+                    w.name("reply"); write(reply.event(), w);
+                    w.endObject();
+                }
+                w.endArray();
+            }
+            case ServerEvent.Ping p -> w.name("type").value("ping");
+            case ServerEvent.Other o -> w.name("type").value(o.type());
+        }
+        w.endObject();
+    }
+
+    private static void writeEntries(List<ServerEvent.Entry> messages, JsonWriter w) throws IOException {
+        w.name("messages").beginArray();
+        for (ServerEvent.Entry m : messages) {
+            w.beginObject();
+            w.name("id").value(m.id()); w.name("sender").value(m.sender()); w.name("receiver").value(m.receiver());
+            w.name("text").value(m.text()); w.name("ts").value(m.ts());
+            w.endObject();
+        }
+        w.endArray();
+    }
+}
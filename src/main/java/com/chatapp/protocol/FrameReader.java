@@ -0,0 +1,12 @@
+package com.chatapp.protocol;
+
+import java.io.IOException;
+
+/**
+ * FrameReader yields decoded frames from one connection in either wire format
+ * (JsonLineReader or BinaryFrameReader).
+ */
+public interface FrameReader<T> {
+    /** Returns the next frame, or null at end of stream. */
+    T next() throws IOException;
+}
@@ -0,0 +1,61 @@
+package com.chatapp.protocol;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * JsonLineReader decodes newline-delimited JSON objects straight from a character stream.
+ * One JsonReader is reused for the whole connection, so no String is built per line.
+ * After a malformed line the reader is discarded and decoding resumes at the next line.
+ * A line longer than the limit ends the stream with an IOException.
+ */
+public class JsonLineReader<T> implements FrameReader<T> {
+    @FunctionalInterface
+    public interface Decoder<T> {
+        T read(JsonReader r) throws IOException;
+    }
+
+    private final LineBoundedReader in;
+    private final Decoder<T> decoder;
+    private JsonReader json;
+
+    public JsonLineReader(Reader in, Decoder<T> decoder) {
+        this(in, decoder, Integer.MAX_VALUE);
+    }
+
+    public JsonLineReader(Reader in, Decoder<T> decoder, int maxLineChars) {
+        this.in = new LineBoundedReader(in, maxLineChars);
+        this.decoder = decoder;
+    }
+
+    /**
+     * Returns the next object, or null at end of stream.
+     * Throws MalformedJsonException for a bad line; the next call continues with the following line.
+     */
+    @Override
+    public T next() throws IOException {
+        if (json == null) {
+            json = new JsonReader(in);
+            json.setStrictness(Strictness.LENIENT);
+        }
+        try {
+            JsonToken t = json.peek();
+            if (t == JsonToken.END_DOCUMENT) return null;
+            if (t != JsonToken.BEGIN_OBJECT) throw new MalformedJsonException("Expected a JSON object but was " + t);
+            return decoder.read(json);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            json = null;
+            in.skipRestOfLine();
+            throw e instanceof MalformedJsonException m ? m : new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
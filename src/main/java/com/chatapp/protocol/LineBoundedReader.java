@@ -0,0 +1,64 @@
+package com.chatapp.protocol;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * LineBoundedReader never hands out characters past the end of the current line in a single read.
+ * A JsonReader on top of it therefore has nothing buffered beyond the line it is parsing,
+ * which lets the caller throw that JsonReader away after a syntax error and resume at the next line.
+ * A line longer than maxLineChars fails the read with an IOException.
+ */
+class LineBoundedReader extends Reader {
+    private final Reader in;
+    private final int maxLineChars;
+    private final char[] buf = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+    private int lineChars = 0; // handed out so far from the current line
+    private boolean atLineStart = true;
+
+    LineBoundedReader(Reader in, int maxLineChars) {
+        this.in = in;
+        this.maxLineChars = maxLineChars;
+    }
+
+    private boolean fill() throws IOException {
+        if (pos < limit) return true;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!fill()) return -1;
+        int n = 0;
+        while (n < len && pos < limit) {
+            char c = buf[pos++];
+            cbuf[off + n++] = c;
+            if (c == '\n') break;
+        }
+        atLineStart = cbuf[off + n - 1] == '\n';
+        lineChars += atLineStart ? n - 1 : n;
+        if (lineChars > maxLineChars) throw new IOException("line longer than " + maxLineChars + " chars");
+        if (atLineStart) lineChars = 0;
+        return n;
+    }
+
+    /** Discards the rest of the current line, if any of it has been handed out. */
+    void skipRestOfLine() throws IOException {
+        while (!atLineStart && fill()) {
+            if (buf[pos++] == '\n') atLineStart = true;
+        }
+        lineChars = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,32 @@
+package com.chatapp.protocol;
+
+import java.util.List;
+
+/**
+ * ServerEvent is one decoded server-to-client frame, one record per "type".
+ */
+public sealed interface ServerEvent {
+    /** session is set on a successful register, login or resume. */
+    record Ok(String msg, String session) implements ServerEvent {}
+    record Error(String msg) implements ServerEvent {}
+    /** Chat messages carry their conversation (the room, or the PM sender) and message id; notices carry neither. */
+    record ServerMsg(String text, String target, Long id) implements ServerEvent {
+        public ServerMsg(String text) { this(text, null, null); }
+    }
+    record RoomList(List<String> rooms) implements ServerEvent {}
+    record History(String target, List<Entry> messages, Long nextBeforeId, Long nextAfterId) implements ServerEvent {}
+    /** Matches newest first; nextBeforeId continues the search when the page is full. */
+    record SearchResults(String target, String query, List<Entry> messages, Long nextBeforeId) implements ServerEvent {}
+    /** Server metrics in Prometheus text format, for admins. */
+    record Stats(String text) implements ServerEvent {}
+    /** Answer to a Command.Batch: one reply per executed command, in order. */
+    record Batch(List<Reply> replies) implements ServerEvent {}
+    /** Heartbeat to a client that has been quiet; it answers with Command.Pong. */
+    record Ping() implements ServerEvent {}
+    record Other(String type) implements ServerEvent {}
+
+    record Entry(long id, String sender, String receiver, String text, String ts) {}
+    record Reply(long id, ServerEvent event) {}
+
+    Ping PING = new Ping();
+}
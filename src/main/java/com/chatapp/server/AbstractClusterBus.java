@@ -0,0 +1,149 @@
+package com.chatapp.server;
+
+import com.chatapp.server.ClusterEvent.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AbstractClusterBus keeps the cluster directory: which node each remote user is logged in on
+ * and which nodes have members in each room. Subclasses only move ClusterEvents between nodes.
+ * Presence announcements are made while holding the bus's monitor; a subclass that attaches a
+ * new peer must queue snapshot() to it under the same monitor, so that no announcement can
+ * overtake the snapshot on that peer.
+ */
+public abstract class AbstractClusterBus implements ClusterBus {
+    protected final int nodeId;
+    private volatile Listener listener;
+
+    private final Set<String> localUsers = ConcurrentHashMap.newKeySet();
+    private final Set<String> localRooms = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> userNodes = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> roomNodes = new ConcurrentHashMap<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+
+    protected AbstractClusterBus(int nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /** Queues an event to one peer; false if that peer is not connected. */
+    protected abstract boolean send(int node, ClusterEvent e);
+
+    /** Queues an event to every connected peer. */
+    protected abstract void sendAll(ClusterEvent e);
+
+    @Override
+    public int nodeId() { return nodeId; }
+
+    protected void setListener(Listener listener) { this.listener = listener; }
+
+    @Override
+    public synchronized void userOnline(String user) {
+        localUsers.add(user);
+        announce(ClusterEvent.of(Type.USER_ON, nodeId, user));
+    }
+
+    @Override
+    public synchronized void userOffline(String user) {
+        localUsers.remove(user);
+        announce(ClusterEvent.of(Type.USER_OFF, nodeId, user));
+    }
+
+    @Override
+    public synchronized void roomOnline(String room) {
+        localRooms.add(room);
+        announce(ClusterEvent.of(Type.ROOM_ON, nodeId, room));
+    }
+
+    @Override
+    public synchronized void roomOffline(String room) {
+        localRooms.remove(room);
+        announce(ClusterEvent.of(Type.ROOM_OFF, nodeId, room));
+    }
+
+    // Every node gets room and PM messages, not only the ones with a recipient,
+    // so that any node's history cache stays a complete suffix of the conversation.
+    @Override
+    public void publishRoomMessage(String room, long id, String sender, String text) {
+        announce(new ClusterEvent(Type.ROOM_MSG, nodeId, room, id, sender, text));
+    }
+
+    @Override
+    public void publishPrivateMessage(String to, long id, String sender, String text) {
+        announce(new ClusterEvent(Type.PM, nodeId, to, id, sender, text));
+    }
+
+    @Override
+    public boolean isRemoteUser(String user) {
+        return userNodes.containsKey(user);
+    }
+
+    @Override
+    public void publishRoomNotice(String room, String text) {
+        Set<Integer> nodes = roomNodes.get(room);
+        if (nodes == null) return;
+        ClusterEvent e = new ClusterEvent(Type.ROOM_NOTICE, nodeId, room, 0, null, text);
+        for (int n : nodes) {
+            if (send(n, e)) sent.incrementAndGet();
+        }
+    }
+
+    private void announce(ClusterEvent e) {
+        sendAll(e);
+        sent.incrementAndGet();
+    }
+
+    @Override
+    public Set<String> remoteRooms() {
+        return roomNodes.keySet();
+    }
+
+    /** HELLO followed by this node's users and rooms, for a newly attached peer. */
+    protected List<ClusterEvent> snapshot() {
+        List<ClusterEvent> out = new ArrayList<>(1 + localUsers.size() + localRooms.size());
+        out.add(ClusterEvent.of(Type.HELLO, nodeId, null));
+        for (String u : localUsers) out.add(ClusterEvent.of(Type.USER_ON, nodeId, u));
+        for (String r : localRooms) out.add(ClusterEvent.of(Type.ROOM_ON, nodeId, r));
+        return out;
+    }
+
+    /** Applies an event from a peer. Events from one peer must be received in order. */
+    protected void receive(ClusterEvent e) {
+        received.incrementAndGet();
+        Listener l = listener;
+        switch (e.type()) {
+            case HELLO -> {}
+            case USER_ON -> userNodes.put(e.name(), e.node());
+            case USER_OFF -> userNodes.remove(e.name(), e.node());
+            case ROOM_ON -> roomNodes.computeIfAbsent(e.name(), k -> ConcurrentHashMap.newKeySet()).add(e.node());
+            case ROOM_OFF -> roomNodes.computeIfPresent(e.name(), (k, s) -> {
+                s.remove(e.node());
+                return s.isEmpty() ? null : s;
+            });
+            case ROOM_MSG -> { if (l != null) l.onRoomMessage(e.name(), e.id(), e.sender(), e.text()); }
+            case PM -> { if (l != null) l.onPrivateMessage(e.name(), e.id(), e.sender(), e.text()); }
+            case ROOM_NOTICE -> { if (l != null) l.onRoomNotice(e.name(), e.text()); }
+        }
+    }
+
+    /** Forgets everything a peer announced, after its link dropped. */
+    protected void nodeDown(int node) {
+        userNodes.values().removeIf(n -> n == node);
+        for (String room : roomNodes.keySet()) {
+            roomNodes.computeIfPresent(room, (k, s) -> {
+                s.remove(node);
+                return s.isEmpty() ? null : s;
+            });
+        }
+    }
+
+    public long getSent() { return sent.get(); }
+    public long getReceived() { return received.get(); }
+    public int getRemoteUsers() { return userNodes.size(); }
+}
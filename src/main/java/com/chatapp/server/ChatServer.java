@@ -1,26 +1,204 @@
 package com.chatapp.server;
 
 import com.chatapp.util.Config;
+import com.chatapp.util.HashedWheelTimer;
+import com.chatapp.util.MessageIds;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * ChatServer accepts client connections in one of two modes:
+ * "threads" (default) runs every ClientHandler on its own pooled thread with blocking I/O,
+ * "virtual" does the same on a virtual thread per client (JDK 21+),
+ * "nio" multiplexes all sockets over a few selector loops (see NioServer).
+ * Logged-in users and room members are per node; a ClusterBus carries messages
+ * and presence to the other nodes (see TcpClusterBus).
+ * The search index is rebuilt from storage in the background while the server starts serving.
+ */
 public class ChatServer {
     private final int port;
-    private final ServerSocket serverSocket;
+    private final String mode;
+    private ServerSocket serverSocket;
     private final ExecutorService clientPool;
+    private final MessageWriter messageWriter;
+    private final HistoryCache historyCache;
+    private final SearchIndex searchIndex;
+    private final CryptoPool cryptoPool;
+    private final SessionStore sessions;
+    private final ClusterBus cluster;
+    private final MessageIds messageIds;
+    private final Storage storage;
+    private final HashedWheelTimer timer;
+    private final RateLimits rateLimits;
 
-    public ChatServer(int port) throws IOException {
+    // users logged in on this node, and this node's members of each room
+    private final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
+    private final Map<String, RoomMembers> rooms = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    public ChatServer(int port, Storage storage) throws IOException {
+        this(port, Config.SERVER_MODE, storage);
+    }
+
+    public ChatServer(int port, String mode, Storage storage) throws IOException {
+        this(port, mode, ClusterBus.fromConfig(), storage);
+    }
+
+    public ChatServer(int port, String mode, ClusterBus cluster, Storage storage) throws IOException {
         this.port = port;
-        this.serverSocket = new ServerSocket(port);
-        this.clientPool = Executors.newCachedThreadPool();
+        this.mode = mode;
+        this.storage = storage;
+        this.searchIndex = new SearchIndex(Config.SEARCH_MAX_BYTES, Config.SEARCH_SEGMENT_POSTINGS);
+        this.messageWriter = new MessageWriter(storage, Config.PERSIST_QUEUE_CAPACITY, Config.PERSIST_BATCH_SIZE, Config.PERSIST_FLUSH_MILLIS,
+                searchIndex::addAll);
+        this.messageWriter.start();
+        this.historyCache = new HistoryCache(Config.HISTORY_RING_SIZE, Config.HISTORY_MAX_CONVERSATIONS, Config.HISTORY_MAX_BYTES);
+        this.cryptoPool = new CryptoPool(Config.CRYPTO_THREADS, Config.CRYPTO_QUEUE_LIMIT);
+        this.sessions = new SessionStore(Config.SESSION_TTL_SECONDS * 1000L, storage, Config.SESSION_PERSIST);
+        this.cluster = cluster;
+        this.messageIds = new MessageIds(cluster.nodeId());
+        this.timer = new HashedWheelTimer("chat-timer", Config.TIMER_TICK_MS, Config.TIMER_WHEEL_SIZE);
+        this.rateLimits = new RateLimits(Config.RATE_LIMITS_USER, Config.RATE_LIMIT_ROOM_MSG, timer);
+        if ("nio".equals(mode)) {
+            this.clientPool = Executors.newFixedThreadPool(Config.NIO_WORKER_THREADS);
+        } else {
+            this.serverSocket = new ServerSocket(port);
+            this.clientPool = "virtual".equals(mode)
+                    ? Executors.newVirtualThreadPerTaskExecutor()
+                    : Executors.newCachedThreadPool();
+        }
+        cluster.start(new ClusterListener());
+        registerGauges();
+        if (searchIndex.isEnabled()) {
+            Thread rebuild = new Thread(() -> searchIndex.rebuild(storage, Config.SEARCH_REBUILD_THREADS, Config.SEARCH_REBUILD_CHUNK), "search-rebuild");
+            rebuild.setDaemon(true);
+            rebuild.start();
+        }
     }
 
-    public void serve() {
-        System.out.println("Server listening on 0.0.0.0:" + port);
+    /** Exposes the counters the components already keep; read only when stats are rendered. */
+    private void registerGauges() {
+        Metrics.gauge("chat_connections", connections::get);
+        Metrics.gauge("chat_clients_logged_in", clients::size);
+        Metrics.gauge("chat_rooms", rooms::size);
+        Metrics.gauge("chat_room_members_total", () -> rooms.values().stream().mapToLong(RoomMembers::size).sum());
+        Metrics.gauge("chat_room_members_max", () -> rooms.values().stream().mapToLong(RoomMembers::size).max().orElse(0));
+        Metrics.gauge("chat_persist_queue_depth", messageWriter::getQueueDepth);
+        Metrics.gauge("chat_persist_written_total", messageWriter::getWritten);
+        Metrics.gauge("chat_persist_failed_total", messageWriter::getFailed);
+        Metrics.gauge("chat_persist_batches_total", messageWriter::getBatches);
+        Metrics.gauge("chat_persist_batch_size_avg", messageWriter::getAvgBatchSize);
+        Metrics.gauge("chat_persist_flush_ms_avg", messageWriter::getAvgFlushMillis);
+        Metrics.gauge("chat_persist_flush_ms_max", messageWriter::getMaxFlushMillis);
+        Metrics.gauge("chat_history_cache_conversations", historyCache::getConversations);
+        Metrics.gauge("chat_history_cache_bytes", historyCache::getBytes);
+        Metrics.gauge("chat_history_cache_hits_total", historyCache::getHits);
+        Metrics.gauge("chat_history_cache_misses_total", historyCache::getMisses);
+        Metrics.gauge("chat_search_index_bytes", searchIndex::getBytes);
+        Metrics.gauge("chat_search_index_segments", searchIndex::getSegments);
+        Metrics.gauge("chat_search_index_messages_total", searchIndex::getIndexed);
+        Metrics.gauge("chat_search_index_evicted_segments_total", searchIndex::getEvictions);
+        Metrics.gauge("chat_crypto_queue_depth", cryptoPool::getQueueDepth);
+        Metrics.gauge("chat_crypto_active", cryptoPool::getActive);
+        Metrics.gauge("chat_crypto_completed_total", cryptoPool::getCompleted);
+        Metrics.gauge("chat_crypto_rejected_total", cryptoPool::getRejected);
+        Metrics.gauge("chat_crypto_wait_ms_avg", cryptoPool::getAvgWaitMillis);
+        Metrics.gauge("chat_crypto_wait_ms_max", cryptoPool::getMaxWaitMillis);
+        Metrics.gauge("chat_crypto_hash_ms_avg", cryptoPool::getAvgHashMillis);
+        Metrics.gauge("chat_crypto_hash_ms_max", cryptoPool::getMaxHashMillis);
+        Metrics.gauge("chat_timer_pending", timer::getPending);
+        Metrics.gauge("chat_timer_expired_total", timer::getExpired);
+        Metrics.gauge("chat_sessions_active", sessions::getActive);
+        Metrics.gauge("chat_sessions_resumed_total", sessions::getResumed);
+        if (storage instanceof JdbcStorage db) {
+            Metrics.gauge("chat_id_cache_hits_total{cache=\"user\"}", () -> db.getUserIds().getHits());
+            Metrics.gauge("chat_id_cache_misses_total{cache=\"user\"}", () -> db.getUserIds().getMisses());
+            Metrics.gauge("chat_id_cache_hits_total{cache=\"room\"}", () -> db.getRoomIds().getHits());
+            Metrics.gauge("chat_id_cache_misses_total{cache=\"room\"}", () -> db.getRoomIds().getMisses());
+            Metrics.gauge("chat_db_pool_size_max", () -> db.getPool().getMaxSize());
+            Metrics.gauge("chat_db_pool_open", () -> db.getPool().getOpen());
+            Metrics.gauge("chat_db_pool_idle", () -> db.getPool().getIdle());
+            Metrics.gauge("chat_db_pool_active", () -> db.getPool().getActive());
+            Metrics.gauge("chat_db_pool_acquires_total", () -> db.getPool().getAcquires());
+            Metrics.gauge("chat_db_pool_created_total", () -> db.getPool().getCreated());
+            Metrics.gauge("chat_db_pool_timeouts_total", () -> db.getPool().getTimeouts());
+            Metrics.gauge("chat_db_pool_wait_ms_avg", () -> db.getPool().getAvgWaitMillis());
+            Metrics.gauge("chat_db_pool_wait_ms_max", () -> db.getPool().getMaxWaitMillis());
+        }
+        if (cluster instanceof AbstractClusterBus bus) {
+            Metrics.gauge("chat_cluster_events_sent_total", bus::getSent);
+            Metrics.gauge("chat_cluster_events_received_total", bus::getReceived);
+            Metrics.gauge("chat_cluster_remote_users", bus::getRemoteUsers);
+        }
+        if (cluster instanceof TcpClusterBus tcp) {
+            Metrics.gauge("chat_cluster_peers", tcp::getConnectedPeers);
+            Metrics.gauge("chat_cluster_link_drops_total", tcp::getLinkDrops);
+        }
+    }
+
+    /** Delivers messages from other nodes to this node's clients, history cache and search index. */
+    private final class ClusterListener implements ClusterBus.Listener {
+        @Override
+        public void onRoomMessage(String room, long id, String sender, String text) {
+            historyCache.append(id, true, sender, room, text);
+            searchIndex.add(id, true, sender, room, text);
+            var members = rooms.get(room);
+            if (members != null) members.broadcast(null, Frames.roomMsg(id, room, sender, text));
+        }
+
+        @Override
+        public void onPrivateMessage(String to, long id, String sender, String text) {
+            historyCache.append(id, false, sender, to, text);
+            searchIndex.add(id, false, sender, to, text);
+            ClientHandler target = clients.get(to);
+            if (target != null) target.sendFrame(Frames.pm(id, sender, text));
+        }
+
+        @Override
+        public void onRoomNotice(String room, String text) {
+            var members = rooms.get(room);
+            if (members != null) members.broadcast(null, Frames.serverMsg(text));
+        }
+    }
+
+    public MessageWriter getMessageWriter() { return messageWriter; }
+    public HistoryCache getHistoryCache() { return historyCache; }
+    public SearchIndex getSearchIndex() { return searchIndex; }
+    public long nextMessageId() { return messageIds.next(); }
+
+    public CryptoPool getCryptoPool() { return cryptoPool; }
+    public SessionStore getSessions() { return sessions; }
+    public ClusterBus getCluster() { return cluster; }
+    public Storage getStorage() { return storage; }
+    /** One timer for every connection's heartbeat and idle checks. */
+    public HashedWheelTimer getTimer() { return timer; }
+    public RateLimits getRateLimits() { return rateLimits; }
+
+    AtomicInteger getConnections() { return connections; }
+    Map<String, ClientHandler> getClients() { return clients; }
+    Map<String, RoomMembers> getRooms() { return rooms; }
+
+    /**
+     * The pool client work runs on: handler threads (threads/virtual) or NIO workers.
+     * Also used for StreamTransport writer tasks and for resuming a handler after async work.
+     */
+    public ExecutorService getExecutor() { return clientPool; }
+
+    public void serve() throws IOException {
+        if ("nio".equals(mode)) {
+            NioServer nio = new NioServer(this, port, Config.NIO_IO_THREADS, clientPool);
+            System.out.println("Server listening on 0.0.0.0:" + port + " (nio, " + Config.NIO_IO_THREADS + " loops)");
+            nio.serve();
+            return;
+        }
+        System.out.println("Server listening on 0.0.0.0:" + port + " (" + mode + ")");
         while (true) {
             try {
                 Socket client = serverSocket.accept();
@@ -33,12 +211,23 @@ public class ChatServer {
     }
 
     public static void main(String[] args) throws Exception {
-        // initialize DB
-        DBManager.init();
-        System.out.println("DB initialized");
+        Storage storage = Storage.fromConfig();
+        System.out.println("Storage initialized (" + Config.STORAGE + ")");
         int port = Config.SERVER_PORT;
         if (args.length >= 1) port = Integer.parseInt(args[0]);
-        ChatServer server = new ChatServer(port);
+        String mode = Config.SERVER_MODE;
+        if (args.length >= 2) mode = args[1];
+        ChatServer server = new ChatServer(port, mode, storage);
+        if (Config.METRICS_PORT > 0) {
+            StatsHttpServer.start(Config.METRICS_PORT);
+            System.out.println("Metrics on http://0.0.0.0:" + Config.METRICS_PORT + "/metrics");
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.getTimer().close();
+            server.getCluster().close();
+            server.getMessageWriter().close();
+            storage.close();
+        }));
         server.serve();
     }
 }
@@ -1,86 +1,246 @@
 package com.chatapp.server;
 
+import com.chatapp.util.Config;
+import com.chatapp.util.HashedWheelTimer;
+import com.chatapp.util.Histogram;
 import com.chatapp.util.PasswordUtils;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.chatapp.model.Message;
+import com.chatapp.protocol.BinaryCodec;
+import com.chatapp.protocol.BinaryFrameReader;
+import com.chatapp.protocol.Command;
+import com.chatapp.protocol.CommandCodec;
+import com.chatapp.protocol.FrameReader;
+import com.chatapp.protocol.JsonLineReader;
+import com.chatapp.protocol.ServerEvent;
+import com.google.gson.stream.MalformedJsonException;
 
 import java.io.*;
-import java.lang.reflect.Type;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * ClientHandler reads newline-delimited JSON commands from client and executes them.
- * Uses Gson to parse JSON into Map<String,Object>.
+ * ClientHandler reads commands from a client and executes them.
+ * Commands arrive as newline-delimited JSON (CommandCodec) or, after a "hello" as the first
+ * command, as binary frames (BinaryCodec); replies go out in the same format.
+ * In thread mode it owns the socket and runs its own read loop; in NIO mode the
+ * event loop feeds it lines and frames through handleLine/handleFrame and it writes through a Transport.
+ * A batch command runs its commands in order and answers them all in one frame.
+ * A quiet client is pinged from the server's wheel timer and reaped once it has been silent
+ * past the idle timeout, or as soon as a write to it has failed.
+ * "search" looks up ids in the server's SearchIndex and fetches those rows from storage.
+ * Every command first takes a token from the user's rate limits (see RateLimits); one over
+ * the limit gets a shared, pre-encoded error frame and is not run.
  */
-public class ClientHandler implements Runnable {
+public final class ClientHandler implements Runnable {
+    private static final int MAX_HISTORY_PAGE = 500;
+    private static final int MAX_SEARCH_PAGE = 100;
+    private static final int MAX_NAME = 64; // user and room names, in chars
+    // history and search pages, and each frame of batch replies, stop short of this many bytes,
+    // so every reply fits in one binary frame
+    private static final int MAX_REPLY_BYTES = BinaryCodec.MAX_FRAME_BYTES / 2;
+    private static final int ENTRY_OVERHEAD = 32;
+
+    // per-command latency, resolved once per record class
+    private static final ClassValue<Histogram> COMMAND_LATENCY = new ClassValue<>() {
+        @Override
+        protected Histogram computeValue(Class<?> type) {
+            return Metrics.histogram("chat_command_latency_ns{cmd=\"" + type.getSimpleName().toLowerCase() + "\"}");
+        }
+    };
+    private static final LongAdder COMMAND_ERRORS = Metrics.counter("chat_command_errors_total");
+    private static final LongAdder FRAMES_OUT = Metrics.counter("chat_outbound_frames_total");
+    private static final LongAdder JSON_BYTES_OUT = Metrics.counter("chat_outbound_bytes_total{proto=\"json\"}");
+    private static final LongAdder OVERSIZED = Metrics.counter("chat_outbound_oversized_frames_total");
+    private static final LongAdder COMMAND_FAILURES = Metrics.counter("chat_command_failures_total");
+    private static final LongAdder BINARY_BYTES_OUT = Metrics.counter("chat_outbound_bytes_total{proto=\"binary\"}");
+    private static final LongAdder PINGS_SENT = Metrics.counter("chat_heartbeat_pings_total");
+    private static final LongAdder REAPED_IDLE = Metrics.counter("chat_connections_reaped_total{reason=\"idle\"}");
+    private static final LongAdder REAPED_DEAD = Metrics.counter("chat_connections_reaped_total{reason=\"write_failed\"}");
+    private static final Frame PING = new Frame(ServerEvent.PING);
+    private static final Frame RATE_LIMITED = new Frame(new ServerEvent.Error("Rate limited, slow down"));
+
     private final ChatServer server;
-    private final Socket socket;
-    private final Gson gson = new Gson();
-    private BufferedReader in;
-    private BufferedWriter out;
+    private final Transport transport;
+    private final InputStream rawIn; // null in NIO mode
+    private FrameReader<Command> in;  // thread mode, set once the first line has picked the format
 
-    // global shared maps
-    private static final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
-    private static final Map<String, CopyOnWriteArraySet<ClientHandler>> rooms = new ConcurrentHashMap<>();
+    // this node's users and room members, owned by the server
+    private final Map<String, ClientHandler> clients;
+    private final Map<String, RoomMembers> rooms;
+    private final ClusterBus cluster;
+    private final Storage storage;
 
     private String username = null;
-    private final Set<String> joinedRooms = new HashSet<>();
+    private String sessionToken = null;
+    // concurrent: cleanup() may iterate it on the timer's eviction path while a command joins a room
+    private final Set<String> joinedRooms = ConcurrentHashMap.newKeySet();
     private volatile boolean alive = true;
+    private volatile boolean binary = false;
+    private boolean firstCommand = true;
+    private List<ServerEvent.Reply> batchReplies; // non-null while a batch runs; replies are collected here
+    private long batchItemId;
+    private int batchBytes;   // binary size of the replies collected since the last batch frame
+    private final AtomicBoolean cleanedUp = new AtomicBoolean();
+    private volatile long lastActivity = System.nanoTime();
+    private volatile HashedWheelTimer.Timeout idleCheck;
+    private RateLimits.Buckets limits; // per connection until login, then the user's
 
     public ClientHandler(ChatServer server, Socket socket) throws IOException {
         this.server = server;
-        this.socket = socket;
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-        this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+        this.clients = server.getClients();
+        this.rooms = server.getRooms();
+        this.cluster = server.getCluster();
+        this.storage = server.getStorage();
+        this.transport = new StreamTransport(socket, server.getExecutor(), this::encode);
+        this.rawIn = new BufferedInputStream(socket.getInputStream());
+        this.limits = server.getRateLimits().anonymous();
+        server.getConnections().incrementAndGet();
     }
 
-    private void sendJson(Map<String,Object> m) {
-        try {
-            String s = gson.toJson(m) + "\n";
-            synchronized (out) {
-                out.write(s);
-                out.flush();
+    public ClientHandler(ChatServer server, Transport transport) {
+        this.server = server;
+        this.clients = server.getClients();
+        this.rooms = server.getRooms();
+        this.cluster = server.getCluster();
+        this.storage = server.getStorage();
+        this.transport = transport;
+        this.rawIn = null;
+        this.limits = server.getRateLimits().anonymous();
+        server.getConnections().incrementAndGet();
+    }
+
+    private void sendEvent(ServerEvent e) {
+        List<ServerEvent.Reply> batch = batchReplies;
+        if (batch == null) { sendFrame(new Frame(e)); return; }
+        if (binary) {
+            // a batch frame must fit in MAX_FRAME_BYTES too: send what has been collected when it would not
+            byte[] one = new Frame(e).binary();
+            if (one == null) e = new ServerEvent.Error("Reply too large");
+            int size = one == null ? 32 : one.length;
+            if (batchBytes + size > MAX_REPLY_BYTES && !batch.isEmpty()) {
+                sendFrame(new Frame(new ServerEvent.Batch(batch)));
+                batchReplies = batch = new ArrayList<>();
+                batchBytes = 0;
             }
+            batchBytes += size;
+        }
+        batch.add(new ServerEvent.Reply(batchItemId, e));
+    }
+
+    /** The frame's bytes in this connection's current format; also used by the transport for its own notices. */
+    byte[] encode(Frame frame) {
+        return binary ? frame.binary() : frame.json();
+    }
+
+    /**
+     * Queues a frame in this connection's format; broadcasts pass the same Frame to every member.
+     * An event too large for a binary frame is dropped and counted rather than thrown.
+     */
+    void sendFrame(Frame frame) {
+        byte[] bytes;
+        if (binary) {
+            bytes = frame.binary();
+            if (bytes == null) { OVERSIZED.increment(); return; }
+            BINARY_BYTES_OUT.add(bytes.length);
+        } else {
+            bytes = frame.json();
+            JSON_BYTES_OUT.add(bytes.length);
+        }
+        FRAMES_OUT.increment();
+        try {
+            transport.send(bytes);
         } catch (IOException e) {
             alive = false;
         }
     }
 
-    private void sendOk(String msg) { sendJson(Map.of("type","ok","msg",msg)); }
-    private void sendErr(String msg) { sendJson(Map.of("type","error","msg",msg)); }
-    private void sendServerMsg(String text) { sendJson(Map.of("type","server_msg","text",text)); }
+    public boolean isAlive() { return alive; }
+
+    /** The refusal is encoded once for all clients; inside a batch it becomes that item's reply. */
+    private void sendRateLimited() {
+        List<ServerEvent.Reply> batch = batchReplies;
+        if (batch != null) batch.add(new ServerEvent.Reply(batchItemId, RATE_LIMITED.event()));
+        else sendFrame(RATE_LIMITED);
+    }
+
+    private void sendOk(String msg) { sendEvent(new ServerEvent.Ok(msg, null)); }
+    private void sendErr(String msg) { COMMAND_ERRORS.increment(); sendEvent(new ServerEvent.Error(msg)); }
+    private void sendServerMsg(String text) { sendEvent(new ServerEvent.ServerMsg(text)); }
+
+    public void start() {
+        sendServerMsg("Welcome! Use /register or /login. Register requires invite token.");
+        if (Config.HEARTBEAT_INTERVAL_MS > 0) scheduleIdleCheck(Config.HEARTBEAT_INTERVAL_MS);
+    }
+
+    // One timeout per connection, re-armed when it fires rather than on every command:
+    // a busy client costs a volatile write per command and one wheel slot per interval.
+    private void scheduleIdleCheck(long delayMillis) {
+        idleCheck = server.getTimer().schedule(this::checkIdle, delayMillis, TimeUnit.MILLISECONDS);
+        if (cleanedUp.get()) idleCheck.cancel();
+    }
+
+    /** Timer thread: pings a quiet client and reaps one that is silent past the idle timeout or unwritable. */
+    private void checkIdle() {
+        if (cleanedUp.get()) return;
+        long idleMillis = (System.nanoTime() - lastActivity) / 1_000_000;
+        if (!alive || idleMillis >= Config.IDLE_TIMEOUT_MS) {
+            (alive ? REAPED_IDLE : REAPED_DEAD).increment();
+            try {
+                server.getExecutor().execute(this::evict);
+            } catch (RejectedExecutionException e) {
+                evict();
+            }
+            return;
+        }
+        long next = Config.HEARTBEAT_INTERVAL_MS - idleMillis;
+        if (next <= 0) {
+            PINGS_SENT.increment();
+            sendFrame(PING);
+            next = Math.min(Config.HEARTBEAT_INTERVAL_MS, Config.IDLE_TIMEOUT_MS - idleMillis);
+        }
+        scheduleIdleCheck(next);
+    }
+
+    /** Drops the socket without flushing and frees the session, rooms and handler thread. */
+    private void evict() {
+        alive = false;
+        transport.abort();
+        cleanup();
+    }
 
     @Override
     public void run() {
         try {
-            sendServerMsg("Welcome! Use /register or /login. Register requires invite token.");
-            String line;
-            Type mapType = new TypeToken<Map<String,Object>>(){}.getType();
-            while (alive && (line = in.readLine()) != null) {
-                Map payload;
+            start();
+            // the first line is read as raw bytes: if it is a binary hello, frames follow right behind it
+            String first = BinaryFrameReader.readLine(rawIn, BinaryCodec.MAX_FRAME_BYTES);
+            if (first == null) return;
+            Command hello = CommandCodec.decode(first);
+            in = BinaryCodec.isHello(hello)
+                    ? new BinaryFrameReader<>(rawIn, BinaryCodec::decodeCommand)
+                    : new JsonLineReader<>(new InputStreamReader(rawIn, StandardCharsets.UTF_8), CommandCodec::read,
+                            BinaryCodec.MAX_FRAME_BYTES);
+            CompletableFuture<Void> firstPending = execute(hello);
+            if (firstPending != null) firstPending.join();
+            while (alive) {
+                Command c;
                 try {
-                    payload = gson.fromJson(line, mapType);
-                } catch (Exception e) {
+                    c = in.next();
+                } catch (MalformedJsonException e) {
                     sendErr("Invalid JSON"); continue;
+                } catch (RuntimeException e) {
+                    commandFailed(e); continue;
                 }
-                if (payload == null || !payload.containsKey("cmd")) { sendErr("Missing cmd"); continue; }
-                String cmd = ((String)payload.get("cmd")).toLowerCase();
-                switch (cmd) {
-                    case "register" -> handleRegister((String)payload.getOrDefault("username",""), (String)payload.getOrDefault("password",""), (String)payload.getOrDefault("token",""));
-                    case "login"    -> handleLogin((String)payload.getOrDefault("username",""), (String)payload.getOrDefault("password",""));
-                    case "join"     -> handleJoin((String)payload.getOrDefault("room",""));
-                    case "leave"    -> handleLeave((String)payload.getOrDefault("room",""));
-                    case "rooms"    -> handleRooms();
-                    case "msg"      -> handleMsg((String)payload.getOrDefault("room",""), (String)payload.getOrDefault("text",""));
-                    case "pm"       -> handlePm((String)payload.getOrDefault("to",""), (String)payload.getOrDefault("text",""));
-                    case "history"  -> handleHistory((String)payload.getOrDefault("target",""), ((Double)payload.getOrDefault("limit",50.0)).intValue());
-                    case "quit"     -> { sendOk("Bye"); alive = false; }
-                    default -> sendErr("Unknown cmd: " + cmd);
-                }
+                if (c == null) break;
+                CompletableFuture<Void> pending = execute(c);
+                if (pending != null) pending.join();
             }
         } catch (IOException e) {
             // ignore
@@ -89,31 +249,197 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void handleRegister(String user, String pass, String token) {
-        if (user.isBlank() || pass.isBlank() || token.isBlank()) { sendErr("username,password,token required"); return; }
-        if (!DBManager.useInvite(token)) { sendErr("Invalid or used invite token"); return; }
-        String hashed = PasswordUtils.hashPassword(pass.toCharArray());
-        if (DBManager.createUser(user, hashed)) {
-            this.username = user;
-            clients.put(user, this);
-            sendOk("Registered & logged in");
-        } else {
-            sendErr("Username already exists");
+    /**
+     * Decodes and executes one command line. Called by an NIO worker, never concurrently.
+     * Returns null when the command is done, or a future the caller must wait for before
+     * running the next command of this client.
+     */
+    public CompletableFuture<Void> handleLine(String line) {
+        return execute(CommandCodec.decode(line));
+    }
+
+    /** Like handleLine, for one binary frame body. */
+    public CompletableFuture<Void> handleFrame(byte[] body) {
+        return execute(BinaryCodec.decodeCommand(body));
+    }
+
+    /**
+     * Runs a command and records its latency; async commands are timed until their future completes.
+     * A command that throws, or whose future fails, gets an error reply and the connection carries on.
+     */
+    private CompletableFuture<Void> execute(Command c) {
+        long t0 = System.nanoTime();
+        lastActivity = t0;
+        if (!limits.tryAcquire(c)) {
+            sendRateLimited();
+            return null;
+        }
+        boolean first = firstCommand;
+        firstCommand = false;
+        CompletableFuture<Void> pending;
+        try {
+            pending = dispatch(c, first);
+        } catch (RuntimeException e) {
+            commandFailed(e);
+            pending = null;
         }
+        Histogram h = COMMAND_LATENCY.get(c.getClass());
+        if (pending == null) h.record(System.nanoTime() - t0);
+        else pending = pending.handle((v, e) -> {
+            h.record(System.nanoTime() - t0);
+            if (e != null) commandFailed(e);
+            return null;
+        });
+        return pending;
     }
 
-    private void handleLogin(String user, String pass) {
-        if (user.isBlank() || pass.isBlank()) { sendErr("username/password required"); return; }
-        String stored = DBManager.fetchStoredPassword(user);
-        if (stored == null) { sendErr("Invalid credentials"); return; }
-        boolean ok = PasswordUtils.verifyPassword(stored, pass.toCharArray());
-        if (ok) {
-            this.username = user;
-            clients.put(user, this);
-            sendOk("Logged in");
-        } else {
-            sendErr("Invalid credentials");
+    /** Reports a command that failed inside the server; inside a batch the error is that item's reply. */
+    void commandFailed(Throwable e) {
+        COMMAND_FAILURES.increment();
+        e.printStackTrace();
+        sendErr("Internal error");
+    }
+
+    private CompletableFuture<Void> dispatch(Command c, boolean first) {
+        switch (c) {
+            case Command.Hello h    -> handleHello(h.proto(), first);
+            case Command.Register r -> { return handleRegister(r.username(), r.password(), r.token()); }
+            case Command.Login l    -> { return handleLogin(l.username(), l.password()); }
+            case Command.Resume r   -> handleResume(r.token());
+            case Command.Join j     -> handleJoin(j.room());
+            case Command.Leave l    -> handleLeave(l.room());
+            case Command.Rooms r    -> handleRooms();
+            case Command.Msg m      -> { return handleMsg(m.room(), m.text()); }
+            case Command.Pm p       -> { return handlePm(p.to(), p.text()); }
+            case Command.History h  -> handleHistory(h.target(), h.limit(), h.beforeId(), h.afterId());
+            case Command.Search s   -> handleSearch(s.target(), s.query(), s.limit(), s.beforeId());
+            case Command.Quit q     -> handleQuit();
+            case Command.Pong p     -> {}
+            case Command.Stats s    -> handleStats();
+            case Command.Sync y     -> handleSync(y.since(), y.limit());
+            case Command.Batch b    -> { return handleBatch(b.commands()); }
+            case Command.Unknown u  -> sendErr("Unknown cmd: " + u.cmd());
+            case Command.Invalid i  -> sendErr(i.error());
         }
+        return null;
+    }
+
+    /** Switches the connection to binary frames; the ok itself still goes out as JSON. */
+    private void handleHello(String proto, boolean first) {
+        if (!first) { sendErr("hello must be the first command"); return; }
+        if (!BinaryCodec.PROTO.equals(proto)) { sendErr("Unsupported protocol: " + proto); return; }
+        sendOk("Protocol " + proto);
+        binary = true;
+    }
+
+    private CompletableFuture<Void> handleBatch(List<Command.Item> items) {
+        if (batchReplies != null) { sendErr("batch cannot be nested"); return null; }
+        if (items.size() > CommandCodec.MAX_BATCH) { sendErr("batch is limited to " + CommandCodec.MAX_BATCH + " commands"); return null; }
+        batchReplies = new ArrayList<>(items.size());
+        batchBytes = 0;
+        return runBatch(items, 0);
+    }
+
+    /**
+     * Executes items from index from on; an async item (register/login) suspends the batch
+     * until its future completes. The collected replies go out as one frame at the end, or as
+     * several on a binary connection when one would exceed MAX_REPLY_BYTES.
+     */
+    private CompletableFuture<Void> runBatch(List<Command.Item> items, int from) {
+        for (int i = from; i < items.size() && alive; i++) {
+            batchItemId = items.get(i).id();
+            CompletableFuture<Void> pending = execute(items.get(i).command());
+            if (pending != null && !pending.isDone()) {
+                int next = i + 1;
+                return pending.thenCompose(v -> {
+                    CompletableFuture<Void> rest = runBatch(items, next);
+                    return rest != null ? rest : CompletableFuture.completedFuture(null);
+                });
+            }
+        }
+        List<ServerEvent.Reply> replies = batchReplies;
+        batchReplies = null;
+        sendEvent(new ServerEvent.Batch(replies));
+        return null;
+    }
+
+    // Password hashing runs on the crypto pool; the rest of the command resumes on the
+    // client executor once the hash is ready, and the caller holds this client's next command.
+    private CompletableFuture<Void> handleRegister(String user, String pass, String token) {
+        if (user.isBlank() || pass.isBlank() || token.isBlank()) { sendErr("username,password,token required"); return null; }
+        if (user.length() > MAX_NAME) { sendErr("username is limited to " + MAX_NAME + " characters"); return null; }
+        if (!storage.inviteAvailable(token)) { sendErr("Invalid or used invite token"); return null; }
+        CompletableFuture<String> hashed;
+        try {
+            hashed = server.getCryptoPool().hash(pass.toCharArray());
+        } catch (RejectedExecutionException e) {
+            sendErr("Server busy, retry later"); return null;
+        }
+        return hashed.thenAcceptAsync(h -> {
+            if (!storage.useInvite(token)) { sendErr("Invalid or used invite token"); return; }
+            if (storage.createUser(user, h)) {
+                bindUser(user);
+                sendLoggedIn("Registered & logged in");
+            } else {
+                sendErr("Username already exists");
+            }
+        }, server.getExecutor()).exceptionally(this::internalError);
+    }
+
+    private CompletableFuture<Void> handleLogin(String user, String pass) {
+        if (user.isBlank() || pass.isBlank()) { sendErr("username/password required"); return null; }
+        String stored = storage.fetchStoredPassword(user);
+        if (stored == null) { sendErr("Invalid credentials"); return null; }
+        CompletableFuture<Boolean> verified;
+        try {
+            verified = server.getCryptoPool().verify(stored, pass.toCharArray());
+        } catch (RejectedExecutionException e) {
+            sendErr("Server busy, retry later"); return null;
+        }
+        return verified.thenAcceptAsync(ok -> {
+            if (ok) {
+                bindUser(user);
+                sendLoggedIn("Logged in");
+            } else {
+                sendErr("Invalid credentials");
+            }
+        }, server.getExecutor()).exceptionally(this::internalError);
+    }
+
+    private void bindUser(String user) {
+        if (this.username != null) server.getRateLimits().release(this.username);
+        this.username = user;
+        this.limits = server.getRateLimits().forUser(user);
+        clients.put(user, this);
+        cluster.userOnline(user);
+    }
+
+    /** Acks a password login with a session token the client can later pass to "resume". */
+    private void sendLoggedIn(String msg) {
+        sessionToken = server.getSessions().issue(username);
+        sendEvent(new ServerEvent.Ok(msg, sessionToken));
+    }
+
+    private void handleResume(String token) {
+        if (this.username != null) { sendErr("Already logged in"); return; }
+        if (token.isBlank()) { sendErr("token required"); return; }
+        String user = server.getSessions().resume(token);
+        if (user == null) { sendErr("Invalid or expired session"); return; }
+        bindUser(user);
+        this.sessionToken = token;
+        sendEvent(new ServerEvent.Ok("Resumed", token));
+    }
+
+    /** An explicit quit is a logout: the session token stops working. */
+    private void handleQuit() {
+        if (sessionToken != null) server.getSessions().revoke(sessionToken);
+        sendOk("Bye");
+        alive = false;
+    }
+
+    private Void internalError(Throwable t) {
+        sendErr("Internal error");
+        return null;
     }
 
     private boolean requireAuth() {
@@ -124,71 +450,226 @@ public class ClientHandler implements Runnable {
     private void handleJoin(String room) {
         if (!requireAuth()) return;
         if (room.isBlank()) { sendErr("room required"); return; }
-        rooms.putIfAbsent(room, new CopyOnWriteArraySet<>());
-        rooms.get(room).add(this);
-        joinedRooms.add(room);
-        DBManager.ensureRoom(room);
-        DBManager.addMembership(this.username, room);
+        if (room.length() > MAX_NAME) { sendErr("room name is limited to " + MAX_NAME + " characters"); return; }
+        var members = enterRoom(room);
+        storage.ensureRoom(room);
+        storage.addMembership(this.username, room);
         sendOk("Joined " + room);
-        for (ClientHandler ch : rooms.get(room)) {
-            if (ch != this) ch.sendServerMsg("[" + room + "] " + username + " has joined");
-        }
+        String notice = "[" + room + "] " + username + " has joined";
+        members.broadcast(this, Frames.serverMsg(notice));
+        cluster.publishRoomNotice(room, notice);
     }
 
     private void handleLeave(String room) {
         if (!requireAuth()) return;
         if (!joinedRooms.contains(room)) { sendErr("Not in room"); return; }
-        var set = rooms.get(room);
-        if (set != null) set.remove(this);
+        removeFromRoom(room);
         joinedRooms.remove(room);
-        DBManager.removeMembership(this.username, room);
+        storage.removeMembership(this.username, room);
         sendOk("Left " + room);
     }
 
+    /**
+     * Records the room, then joins its member set. If cleanup ran meanwhile it may have walked
+     * joinedRooms before the room was in it, so the join is undone here; removal is idempotent.
+     */
+    private RoomMembers enterRoom(String room) {
+        joinedRooms.add(room);
+        RoomMembers members = addToRoom(room);
+        if (cleanedUp.get()) removeFromRoom(room);
+        return members;
+    }
+
+    private RoomMembers addToRoom(String room) {
+        // compute() runs under the map's lock for this room, so the first-member and
+        // last-member announcements to the cluster cannot interleave
+        return rooms.compute(room, (k, set) -> {
+            if (set == null) set = new RoomMembers(server.getRateLimits().newRoomBucket());
+            if (set.add(this) && set.size() == 1) cluster.roomOnline(room);
+            return set;
+        });
+    }
+
+    private void removeFromRoom(String room) {
+        rooms.computeIfPresent(room, (k, set) -> {
+            if (set.remove(this) && set.isEmpty()) cluster.roomOffline(room);
+            return set;
+        });
+    }
+
     private void handleRooms() {
-        sendJson(Map.of("type","rooms","rooms", rooms.keySet()));
+        Set<String> all = new TreeSet<>(rooms.keySet());
+        all.addAll(cluster.remoteRooms());
+        sendEvent(new ServerEvent.RoomList(new ArrayList<>(all)));
     }
 
-    private void handleMsg(String room, String text) {
+    private void handleStats() {
         if (!requireAuth()) return;
-        if (!joinedRooms.contains(room)) { sendErr("Join room first"); return; }
+        if (!Config.ADMIN_USERS.contains(username)) { sendErr("Admins only"); return; }
+        sendEvent(new ServerEvent.Stats(Metrics.render()));
+    }
+
+    private CompletableFuture<Void> handleMsg(String room, String text) {
+        if (!requireAuth()) return null;
+        if (!joinedRooms.contains(room)) { sendErr("Join room first"); return null; }
         var set = rooms.get(room);
-        if (set == null) { sendErr("Room not found"); return; }
-        for (ClientHandler ch : set) {
-            if (ch != this) ch.sendServerMsg("[" + room + "] " + username + ": " + text);
+        if (set == null) { sendErr("Room not found"); return null; }
+        if (!set.tryAcquireSend()) {
+            server.getRateLimits().roomThrottled();
+            sendRateLimited();
+            return null;
         }
-        DBManager.saveMessage(new Message(username, room, true, text));
-        sendOk("Message sent");
+        var queued = server.getMessageWriter().submit(server::nextMessageId, i -> new Message(i, username, room, true, text));
+        long id = queued.message().getId();
+        set.broadcast(this, Frames.roomMsg(id, room, username, text));
+        cluster.publishRoomMessage(room, id, username, text);
+        server.getHistoryCache().append(id, true, username, room, text);
+        return ack(queued.saved(), "Message sent");
     }
 
-    private void handlePm(String to, String text) {
-        if (!requireAuth()) return;
+    private CompletableFuture<Void> handlePm(String to, String text) {
+        if (!requireAuth()) return null;
         var target = clients.get(to);
-        if (target == null) { sendErr("User not online"); return; }
-        target.sendServerMsg("[PM] " + username + ": " + text);
-        DBManager.saveMessage(new Message(username, to, false, text));
-        sendOk("PM sent");
+        if (target == null && !cluster.isRemoteUser(to)) { sendErr("User not online"); return null; }
+        var queued = server.getMessageWriter().submit(server::nextMessageId, i -> new Message(i, username, to, false, text));
+        long id = queued.message().getId();
+        if (target != null) target.sendFrame(Frames.pm(id, username, text));
+        cluster.publishPrivateMessage(to, id, username, text);
+        server.getHistoryCache().append(id, false, username, to, text);
+        return ack(queued.saved(), "PM sent");
+    }
+
+    /**
+     * Acks a message queued with the write-behind writer after enqueue or after commit, per
+     * Config.PERSIST_ACK. A commit ack resumes on the client executor once the batch is written,
+     * like register/login, so no worker waits out the group-commit interval.
+     */
+    private CompletableFuture<Void> ack(CompletableFuture<Boolean> saved, String okMsg) {
+        if (!"commit".equals(Config.PERSIST_ACK)) { sendOk(okMsg); return null; }
+        return saved.thenAcceptAsync(ok -> {
+            if (ok) sendOk(okMsg);
+            else sendErr("Delivered but not saved");
+        }, server.getExecutor()).exceptionally(this::internalError);
+    }
+
+    private void handleHistory(String target, int limit, Long beforeId, Long afterId) {
+        if (!requireAuth()) return;
+        if (target == null || target.isBlank()) { sendErr("target required"); return; }
+        if (beforeId != null && afterId != null) { sendErr("use before_id or after_id, not both"); return; }
+        limit = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE));
+        sendEvent(historyPage(isRoom(target), target, beforeId, afterId, limit));
+    }
+
+    private boolean isRoom(String target) {
+        return rooms.containsKey(target) || cluster.remoteRooms().contains(target)
+                || server.getHistoryCache().isKnownRoom(target) || storage.isRoom(target);
+    }
+
+    private ServerEvent.History historyPage(boolean isRoom, String target, Long beforeId, Long afterId, int limit) {
+        HistoryCache cache = server.getHistoryCache();
+        var rows = cache.page(isRoom, this.username, target, beforeId, afterId, limit);
+        if (rows == null) {
+            // a message still in the write-behind queue is missing from rows; its ring may have been
+            // evicted, so a seed must not claim to hold the whole conversation
+            MessageWriter writer = server.getMessageWriter();
+            boolean flushed = !writer.hasUnflushed(isRoom, this.username, target);
+            rows = storage.fetchHistory(this.username, target, isRoom, beforeId, afterId, limit);
+            if (beforeId == null && afterId == null) {
+                boolean whole = rows.size() < limit && flushed && !writer.hasUnflushed(isRoom, this.username, target);
+                cache.seed(isRoom, this.username, target, rows, whole);
+            }
+        }
+        List<ServerEvent.Entry> messages = entries(rows);
+        // cursor for the next page in the same direction; a page cut short by size has more behind it
+        Long next = rows.size() == limit || messages.size() < rows.size() ? messages.get(messages.size() - 1).id() : null;
+        return new ServerEvent.History(target, messages, afterId == null ? next : null, afterId != null ? next : null);
+    }
+
+    /** The rows in order, up to MAX_REPLY_BYTES with strings counted at 3 UTF-8 bytes per char; at least one. */
+    private static List<ServerEvent.Entry> entries(List<Map<String,Object>> rows) {
+        List<ServerEvent.Entry> messages = new ArrayList<>(rows.size());
+        long budget = MAX_REPLY_BYTES;
+        for (Map<String,Object> r : rows) {
+            var e = new ServerEvent.Entry(((Number) r.get("id")).longValue(), (String) r.get("sender"), (String) r.get("receiver"),
+                    (String) r.get("text"), (String) r.get("ts"));
+            budget -= ENTRY_OVERHEAD + 3L * (e.sender().length() + e.receiver().length() + e.text().length()
+                    + (e.ts() == null ? 0 : e.ts().length()));
+            if (budget < 0 && !messages.isEmpty()) break;
+            messages.add(e);
+        }
+        return messages;
     }
 
-    private void handleHistory(String target, int limit) {
+    /**
+     * Newest messages of one conversation containing every word of the query. The index yields
+     * up to limit ids; their rows come from storage in one lookup. A hit whose row is not (yet)
+     * in this node's storage, such as a message another node has not flushed, is left out, but
+     * the cursor still moves past it.
+     */
+    private void handleSearch(String target, String query, int limit, Long beforeId) {
         if (!requireAuth()) return;
         if (target == null || target.isBlank()) { sendErr("target required"); return; }
-        var rows = DBManager.fetchHistory(this.username, target, limit);
-        Map<String,Object> resp = new HashMap<>();
-        resp.put("type", "history");
-        resp.put("target", target);
-        resp.put("messages", rows);
-        sendJson(resp);
+        SearchIndex index = server.getSearchIndex();
+        if (!index.isEnabled()) { sendErr("Search is disabled"); return; }
+        List<String> terms = SearchIndex.terms(query);
+        if (terms.isEmpty()) { sendErr("query needs a word of at least " + SearchIndex.MIN_TERM + " letters or digits"); return; }
+        limit = Math.max(1, Math.min(limit, MAX_SEARCH_PAGE));
+        boolean room = isRoom(target);
+        long[] ids = index.search(room, this.username, target, terms, beforeId, limit);
+        var rows = ids.length == 0 ? List.<Map<String,Object>>of() : storage.fetchMessages(this.username, target, room, ids);
+        List<ServerEvent.Entry> hits = entries(rows);
+        Long next = ids.length == limit ? ids[ids.length - 1] : null;
+        if (hits.size() < rows.size()) next = hits.get(hits.size() - 1).id();
+        sendEvent(new ServerEvent.SearchResults(target, query, hits, next));
+    }
+
+    /**
+     * Reconnect in one command: the user's rooms come back from the memberships table in one
+     * query (no per-room ensureRoom/addMembership, no join notices), then every room and every
+     * PM partner named in since gets one history frame with the messages after the id the
+     * client last saw there, or its newest page if it saw none. Conversations with nothing
+     * new are skipped; a final ok ends the response.
+     */
+    private void handleSync(Map<String, Long> since, int limit) {
+        if (!requireAuth()) return;
+        if (since.size() > CommandCodec.MAX_SYNC) { sendErr("sync is limited to " + CommandCodec.MAX_SYNC + " conversations"); return; }
+        limit = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE));
+        List<String> memberOf = storage.fetchMemberships(username);
+        for (String room : memberOf) {
+            if (!joinedRooms.contains(room)) enterRoom(room);
+        }
+        int sent = 0;
+        for (String room : memberOf) {
+            if (sendMissed(true, room, since.get(room), limit)) sent++;
+        }
+        for (Map.Entry<String, Long> e : since.entrySet()) {
+            String target = e.getKey();
+            if (target.isBlank() || joinedRooms.contains(target) || isRoom(target)) continue;
+            if (sendMissed(false, target, e.getValue(), limit)) sent++;
+        }
+        sendOk("Synced " + memberOf.size() + " rooms, " + sent + " with new messages");
+    }
+
+    private boolean sendMissed(boolean isRoom, String target, Long afterId, int limit) {
+        ServerEvent.History page = historyPage(isRoom, target, null, afterId, limit);
+        if (page.messages().isEmpty()) return false;
+        sendEvent(page);
+        return true;
     }
 
-    private void cleanup() {
+    public void cleanup() {
+        if (!cleanedUp.compareAndSet(false, true)) return;
+        alive = false;
+        server.getConnections().decrementAndGet();
+        HashedWheelTimer.Timeout t = idleCheck;
+        if (t != null) t.cancel();
         try {
-            if (username != null) clients.remove(username);
-            for (String r : joinedRooms) {
-                var set = rooms.get(r);
-                if (set != null) set.remove(this);
+            if (username != null) {
+                if (clients.remove(username, this)) cluster.userOffline(username);
+                server.getRateLimits().release(username);
             }
-            try { socket.close(); } catch (IOException ignore) {}
+            for (String r : joinedRooms) removeFromRoom(r);
+            transport.close();
         } catch (Exception ignore) {}
     }
 }
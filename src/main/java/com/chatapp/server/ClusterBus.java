@@ -0,0 +1,55 @@
+package com.chatapp.server;
+
+import com.chatapp.util.Config;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * ClusterBus connects the ChatServer nodes that share one database.
+ * A node announces its logged-in users and the rooms it has members in; messages to a room
+ * go to every other node, and a PM goes to whichever node the user is logged in on.
+ * Implementations: TcpClusterBus between processes, InProcessClusterBus inside one JVM.
+ */
+public interface ClusterBus extends AutoCloseable {
+
+    /** Callbacks for events from other nodes; invoked on the bus's delivery thread. */
+    interface Listener {
+        void onRoomMessage(String room, long id, String sender, String text);
+        void onPrivateMessage(String to, long id, String sender, String text);
+        void onRoomNotice(String room, String text);
+    }
+
+    /** Node id of this server, also used for message ids. */
+    int nodeId();
+
+    void start(Listener listener) throws IOException;
+
+    void userOnline(String user);
+    void userOffline(String user);
+
+    /** Called when the first local member joins a room, and when the last one leaves. */
+    void roomOnline(String room);
+    void roomOffline(String room);
+
+    void publishRoomMessage(String room, long id, String sender, String text);
+    void publishRoomNotice(String room, String text);
+
+    /** Sends a PM to the other nodes; the node the user is logged in on delivers it. */
+    void publishPrivateMessage(String to, long id, String sender, String text);
+
+    /** True if the user is logged in on another node. */
+    boolean isRemoteUser(String user);
+
+    /** Rooms that have members on other nodes. */
+    Set<String> remoteRooms();
+
+    @Override
+    void close();
+
+    /** TCP bus when chat.cluster.port is set, otherwise a bus with no peers. */
+    static ClusterBus fromConfig() {
+        if (Config.CLUSTER_PORT > 0) return new TcpClusterBus(Config.NODE_ID, Config.CLUSTER_PORT, Config.CLUSTER_PEERS, Config.CLUSTER_SECRET);
+        return new InProcessClusterBus(new InProcessClusterBus.Hub(), Config.NODE_ID);
+    }
+}
@@ -0,0 +1,72 @@
+package com.chatapp.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ClusterEvent is one message between nodes on the ClusterBus.
+ * Presence and room events carry only a name; message events also carry the id,
+ * sender and text so the receiving node can render the frame and update its history cache.
+ */
+public record ClusterEvent(Type type, int node, String name, long id, String sender, String text) {
+
+    public enum Type {
+        HELLO,       // first event on a link; name carries the auth nonce or proof, if any
+        USER_ON,     // user logged in on node
+        USER_OFF,    // user logged out of node
+        ROOM_ON,     // node has its first local member in room
+        ROOM_OFF,    // node has no local members left in room
+        ROOM_MSG,    // message to room "name"
+        PM,          // private message to user "name"
+        ROOM_NOTICE  // server notice to room "name", e.g. a join
+    }
+
+    public static ClusterEvent of(Type type, int node, String name) {
+        return new ClusterEvent(type, node, name, 0, null, null);
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeShort(node);
+        out.writeUTF(name == null ? "" : name);
+        switch (type) {
+            case ROOM_MSG, PM -> {
+                out.writeLong(id);
+                out.writeUTF(sender);
+                writeText(out, text);
+            }
+            case ROOM_NOTICE -> writeText(out, text);
+            default -> {}
+        }
+    }
+
+    public static ClusterEvent readFrom(DataInputStream in) throws IOException {
+        int t = in.readUnsignedByte();
+        if (t >= Type.values().length) throw new IOException("bad cluster event type " + t);
+        Type type = Type.values()[t];
+        int node = in.readUnsignedShort();
+        String name = in.readUTF();
+        return switch (type) {
+            case ROOM_MSG, PM -> new ClusterEvent(type, node, name, in.readLong(), in.readUTF(), readText(in));
+            case ROOM_NOTICE -> new ClusterEvent(type, node, name, 0, null, readText(in));
+            default -> of(type, node, name);
+        };
+    }
+
+    // writeUTF is capped at 64KB, message text is not
+    private static void writeText(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > (16 << 20)) throw new IOException("bad cluster text length " + n);
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
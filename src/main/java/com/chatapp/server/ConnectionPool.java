@@ -0,0 +1,145 @@
+package com.chatapp.server;
+
+import com.chatapp.util.Histogram;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConnectionPool keeps up to maxSize JDBC connections and lends them out one caller at a time.
+ * Connections are opened lazily; when all are busy, acquire() waits up to the configured
+ * timeout and then fails with SQLTimeoutException. Connections idle for longer than
+ * validateAfterMillis are checked with isValid() before being handed out.
+ */
+public class ConnectionPool {
+    private final String url;
+    private final String user;
+    private final String pass;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long validateAfterMillis;
+    private final int queryTimeoutSeconds;
+    private final BlockingQueue<PooledConnection> idle;
+    private final AtomicInteger total = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final AtomicLong acquires = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String pass, int maxSize,
+                          long acquireTimeoutMillis, long validateAfterMillis, int queryTimeoutSeconds) {
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    public PooledConnection acquire() throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            long deadline = t0 + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+            while (true) {
+                PooledConnection c = idle.poll();
+                if (c == null) c = tryCreate();
+                if (c == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining > 0) c = idle.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (c == null) {
+                        timeouts.incrementAndGet();
+                        throw new SQLTimeoutException("No DB connection available within " + acquireTimeoutMillis + " ms");
+                    }
+                }
+                if (usable(c)) return c;
+                discard(c);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a DB connection", e);
+        } finally {
+            long waited = System.nanoTime() - t0;
+            acquires.incrementAndGet();
+            waitNanosTotal.addAndGet(waited);
+            waitNanosMax.accumulateAndGet(waited, Math::max);
+        }
+    }
+
+    /** Like acquire(); the time from this call until the connection is closed is recorded in timer. */
+    public PooledConnection acquire(Histogram timer) throws SQLException {
+        long t0 = System.nanoTime();
+        PooledConnection c = acquire();
+        c.startTimer(timer, t0);
+        return c;
+    }
+
+    private PooledConnection tryCreate() throws SQLException {
+        while (true) {
+            int n = total.get();
+            if (n >= maxSize) return null;
+            if (total.compareAndSet(n, n + 1)) break;
+        }
+        try {
+            Connection conn = DriverManager.getConnection(url, user, pass);
+            created.incrementAndGet();
+            return new PooledConnection(this, conn, queryTimeoutSeconds);
+        } catch (SQLException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean usable(PooledConnection c) {
+        try {
+            if (c.isBroken() || c.raw().isClosed()) return false;
+            if (System.currentTimeMillis() - c.getLastReleased() > validateAfterMillis) {
+                return c.raw().isValid(2);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void release(PooledConnection c) {
+        if (closed || c.isBroken() || !idle.offer(c)) discard(c);
+    }
+
+    private void discard(PooledConnection c) {
+        total.decrementAndGet();
+        c.closeQuietly();
+    }
+
+    /** Closes the idle connections; connections still lent out are closed when they come back. */
+    public void close() {
+        closed = true;
+        PooledConnection c;
+        while ((c = idle.poll()) != null) discard(c);
+    }
+
+    // ========== Metrics ==========
+    public int getMaxSize() { return maxSize; }
+    public int getOpen() { return total.get(); }
+    public int getIdle() { return idle.size(); }
+    public int getActive() { return total.get() - idle.size(); }
+    public long getAcquires() { return acquires.get(); }
+    public long getTimeouts() { return timeouts.get(); }
+    public long getCreated() { return created.get(); }
+    public double getAvgWaitMillis() {
+        long n = acquires.get();
+        return n == 0 ? 0 : waitNanosTotal.get() / 1e6 / n;
+    }
+    public double getMaxWaitMillis() { return waitNanosMax.get() / 1e6; }
+}
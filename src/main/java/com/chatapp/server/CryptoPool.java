@@ -0,0 +1,94 @@
+package com.chatapp.server;
+
+import com.chatapp.util.PasswordUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * CryptoPool runs PBKDF2 hashing and verification on a fixed number of threads with a bounded queue,
+ * so a login storm cannot take every core away from message delivery. When the queue is full,
+ * hash/verify throw RejectedExecutionException right away and the caller tells the client to retry.
+ */
+public class CryptoPool {
+    private final ThreadPoolExecutor pool;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong workNanosTotal = new AtomicLong();
+    private final AtomicLong workNanosMax = new AtomicLong();
+
+    public CryptoPool(int threads, int queueLimit) {
+        AtomicInteger n = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueLimit),
+                r -> {
+                    Thread t = new Thread(r, "crypto-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public CompletableFuture<String> hash(char[] password) {
+        return submit(() -> PasswordUtils.hashPassword(password), password);
+    }
+
+    public CompletableFuture<Boolean> verify(String stored, char[] attempt) {
+        return submit(() -> PasswordUtils.verifyPassword(stored, attempt), attempt);
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work, char[] secret) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        long queued = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                long start = System.nanoTime();
+                record(waitNanosTotal, waitNanosMax, start - queued);
+                try {
+                    f.complete(work.get());
+                } catch (RuntimeException e) {
+                    f.completeExceptionally(e);
+                } finally {
+                    record(workNanosTotal, workNanosMax, System.nanoTime() - start);
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            Arrays.fill(secret, '\0');
+            throw e;
+        }
+        return f;
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long nanos) {
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    // ========== Metrics ==========
+    public int getQueueDepth() { return pool.getQueue().size(); }
+    public int getActive() { return pool.getActiveCount(); }
+    public long getCompleted() { return completed.get(); }
+    public long getRejected() { return rejected.get(); }
+    public double getAvgWaitMillis() {
+        long n = completed.get();
+        return n == 0 ? 0 : waitNanosTotal.get() / 1e6 / n;
+    }
+    public double getMaxWaitMillis() { return waitNanosMax.get() / 1e6; }
+    public double getAvgHashMillis() {
+        long n = completed.get();
+        return n == 0 ? 0 : workNanosTotal.get() / 1e6 / n;
+    }
+    public double getMaxHashMillis() { return workNanosMax.get() / 1e6; }
+}
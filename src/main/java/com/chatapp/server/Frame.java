@@ -0,0 +1,47 @@
+package com.chatapp.server;
+
+import com.chatapp.protocol.BinaryCodec;
+import com.chatapp.protocol.EventCodec;
+import com.chatapp.protocol.ServerEvent;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame is one server-to-client event, encoded at most once per wire format: a broadcast
+ * builds one Frame and every member sends the bytes for its own connection's format.
+ * The returned arrays are shared between connections and must never be modified.
+ */
+public final class Frame {
+    private final ServerEvent event;
+    private volatile byte[] json;
+    private volatile byte[] binary;
+
+    private static final byte[] TOO_LARGE = new byte[0];
+
+    public Frame(ServerEvent event) {
+        this.event = event;
+    }
+
+    public ServerEvent event() { return event; }
+
+    /** Newline-terminated UTF-8 JSON. */
+    public byte[] json() {
+        byte[] b = json;
+        if (b == null) json = b = (EventCodec.encode(event) + "\n").getBytes(StandardCharsets.UTF_8);
+        return b;
+    }
+
+    /** Length-prefixed binary frame (see BinaryCodec), or null if the event exceeds BinaryCodec.MAX_FRAME_BYTES. */
+    public byte[] binary() {
+        byte[] b = binary;
+        if (b == null) {
+            try {
+                b = BinaryCodec.encode(event);
+            } catch (IllegalArgumentException e) {
+                b = TOO_LARGE; // remembered, so a broadcast does not re-encode it per member
+            }
+            binary = b;
+        }
+        return b == TOO_LARGE ? null : b;
+    }
+}
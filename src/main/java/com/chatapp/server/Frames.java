@@ -0,0 +1,24 @@
+package com.chatapp.server;
+
+import com.chatapp.protocol.ServerEvent;
+
+/**
+ * Frames builds the server-to-client frames that are sent to many connections.
+ * A frame is built once and the same Frame is queued to every recipient (see Frame).
+ */
+public final class Frames {
+    private Frames() {}
+
+    public static Frame serverMsg(String text) {
+        return new Frame(new ServerEvent.ServerMsg(text));
+    }
+
+    public static Frame roomMsg(long id, String room, String sender, String text) {
+        return new Frame(new ServerEvent.ServerMsg("[" + room + "] " + sender + ": " + text, room, id));
+    }
+
+    /** The conversation of a PM, as its recipient sees it, is the sender. */
+    public static Frame pm(long id, String sender, String text) {
+        return new Frame(new ServerEvent.ServerMsg("[PM] " + sender + ": " + text, sender, id));
+    }
+}
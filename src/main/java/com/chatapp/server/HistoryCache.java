@@ -0,0 +1,205 @@
+package com.chatapp.server;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HistoryCache keeps the most recent messages of active rooms and PM pairs in fixed-size rings,
+ * fed from the msg/pm path, so "last N" history requests are answered without a DB round trip.
+ * Rows carry their message id, so cursor pages (before_id / after_id) can be served too.
+ * A ring answers only when it is known to cover the request: it has a full page on the
+ * requested side of the cursor, or it was seeded from the database and has never wrapped.
+ * Otherwise the caller goes to the database and may seed the ring with the result.
+ * Total size is capped by conversation count and approximate bytes; the least recently used
+ * conversations are evicted first.
+ */
+public class HistoryCache {
+    private record Key(boolean room, String a, String b) {
+        static Key of(boolean room, String user, String target) {
+            if (room) return new Key(true, target, "");
+            return user.compareTo(target) <= 0 ? new Key(false, user, target) : new Key(false, target, user);
+        }
+    }
+
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final int ringSize;
+    private final int maxConversations;
+    private final long maxBytes;
+    private final Map<Key, Ring> rings = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public HistoryCache(int ringSize, int maxConversations, long maxBytes) {
+        this.ringSize = ringSize;
+        this.maxConversations = maxConversations;
+        this.maxBytes = maxBytes;
+    }
+
+    private final class Ring {
+        private final Map<String,Object>[] rows;
+        private int head = 0;   // next write position
+        private int count = 0;
+        private boolean complete = false;
+        private long size = 0;
+        private boolean dead = false;
+        volatile long lastAccess = System.nanoTime();
+
+        @SuppressWarnings("unchecked")
+        Ring() { rows = (Map<String,Object>[]) new Map<?,?>[ringSize]; }
+
+        /**
+         * Inserts the row in id order. Ids are taken before the append and messages from other
+         * nodes interleave, so a row can arrive after a newer one; it is moved back past them.
+         * A full ring drops a row older than everything it holds.
+         */
+        synchronized void add(Map<String,Object> row) {
+            long id = idOf(row);
+            long delta = sizeOf(row);
+            if (count == rows.length) {
+                complete = false;
+                if (id < idAt(count - 1)) return;
+                delta -= sizeOf(rows[head]);
+            } else {
+                count++;
+            }
+            rows[head] = row;
+            head = (head + 1) % rows.length;
+            for (int i = 0; i + 1 < count && idAt(i + 1) > id; i++) {
+                int a = slot(i), b = slot(i + 1);
+                rows[a] = rows[b];
+                rows[b] = row;
+            }
+            size += delta;
+            if (!dead) bytes.addAndGet(delta);
+        }
+
+        /**
+         * Up to limit rows older than beforeId (newest first), or, with afterId, newer than
+         * afterId (oldest first). Null if the ring cannot prove the page is complete.
+         */
+        synchronized List<Map<String,Object>> page(Long beforeId, Long afterId, int limit) {
+            List<Map<String,Object>> out = new ArrayList<>(Math.min(limit, count));
+            if (afterId != null) {
+                // contiguous only if the ring reaches back to the cursor
+                boolean covered = complete || (count > 0 && idAt(count - 1) <= afterId);
+                if (!covered) return null;
+                for (int i = count - 1; i >= 0 && out.size() < limit; i--) {
+                    if (idAt(i) > afterId) out.add(newest(i));
+                }
+                return out;
+            }
+            long before = beforeId != null ? beforeId : Long.MAX_VALUE;
+            for (int i = 0; i < count && out.size() < limit; i++) {
+                if (idAt(i) < before) out.add(newest(i));
+            }
+            return out.size() == limit || complete ? out : null;
+        }
+
+        /** Array index of the i-th newest row, 0 = newest. */
+        private int slot(int i) {
+            return (head - 1 - i + 2 * rows.length) % rows.length;
+        }
+
+        private Map<String,Object> newest(int i) {
+            return rows[slot(i)];
+        }
+
+        private long idAt(int i) {
+            return idOf(newest(i));
+        }
+
+        /** Detaches the ring from the byte count and returns what it was holding. */
+        synchronized long release() {
+            dead = true;
+            return size;
+        }
+    }
+
+    private static long idOf(Map<String,Object> row) {
+        return ((Number) row.get("id")).longValue();
+    }
+
+    private static long sizeOf(Map<String,Object> row) {
+        Object text = row.get("text");
+        return ENTRY_OVERHEAD + (text instanceof String s ? 2L * s.length() : 0);
+    }
+
+    /** Records a message that has just been delivered. */
+    public void append(long id, boolean room, String sender, String receiver, String text) {
+        Key key = Key.of(room, sender, receiver);
+        Ring ring = rings.computeIfAbsent(key, k -> new Ring());
+        ring.lastAccess = System.nanoTime();
+        ring.add(Map.of("id", id, "sender", sender, "receiver", receiver, "text", text,
+                "ts", new Timestamp(System.currentTimeMillis()).toString()));
+        maybeEvict();
+    }
+
+    /** Cursor page with the same ordering as Storage.fetchHistory, or null if the caller must ask the database. */
+    public List<Map<String,Object>> page(boolean room, String user, String target, Long beforeId, Long afterId, int limit) {
+        Ring ring = rings.get(Key.of(room, user, target));
+        List<Map<String,Object>> out = null;
+        if (ring != null) {
+            ring.lastAccess = System.nanoTime();
+            out = ring.page(beforeId, afterId, limit);
+        }
+        if (out != null) hits.incrementAndGet();
+        else misses.incrementAndGet();
+        return out;
+    }
+
+    /** True if a room ring exists for this name, i.e. the name is known to be a room. */
+    public boolean isKnownRoom(String name) {
+        return rings.containsKey(Key.of(true, null, name));
+    }
+
+    /**
+     * Seeds an absent conversation with rows fetched from the database (newest first).
+     * With whole set the rows are the entire conversation, and the ring may answer any page
+     * until it wraps; the caller must not claim that while messages may still be on their way
+     * to the database.
+     */
+    public void seed(boolean room, String user, String target, List<Map<String,Object>> newestFirst, boolean whole) {
+        if (newestFirst.size() > ringSize) return;
+        Ring ring = new Ring();
+        for (int i = newestFirst.size() - 1; i >= 0; i--) ring.add(newestFirst.get(i));
+        ring.complete = whole;
+        if (rings.putIfAbsent(Key.of(room, user, target), ring) != null) {
+            bytes.addAndGet(-ring.release());
+        }
+        maybeEvict();
+    }
+
+    private void maybeEvict() {
+        if (rings.size() <= maxConversations && bytes.get() <= maxBytes) return;
+        synchronized (this) {
+            if (rings.size() <= maxConversations && bytes.get() <= maxBytes) return;
+            List<Map.Entry<Key, Ring>> entries = new ArrayList<>(rings.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            // evict an eighth at a time so the sort is amortized over many appends
+            int target = Math.max(1, entries.size() / 8);
+            for (int i = 0; i < entries.size(); i++) {
+                boolean over = rings.size() > maxConversations || bytes.get() > maxBytes;
+                if (i >= target && !over) break;
+                var e = entries.get(i);
+                if (rings.remove(e.getKey(), e.getValue())) {
+                    bytes.addAndGet(-e.getValue().release());
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public int getConversations() { return rings.size(); }
+    public long getBytes() { return bytes.get(); }
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+}
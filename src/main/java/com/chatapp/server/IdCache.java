@@ -0,0 +1,85 @@
+package com.chatapp.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdCache maps names (usernames, room names) to their database ids.
+ * It is split into independently locked LRU segments so lookups from many threads
+ * rarely contend; each segment evicts its least recently used entry when full.
+ *
+ * There is no per-name invalidation because a cached id cannot go stale: the server only
+ * ever inserts users and rooms, never deletes or renames them, and both names are UNIQUE,
+ * so a name keeps its id for the life of the database. A feature that deletes or renames
+ * either must drop the name from the cache in the same change; after editing those tables
+ * by hand, restart the server (or clear() the cache).
+ */
+public class IdCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public IdCache(int maxEntries) {
+        int perSegment = Math.max(1, maxEntries / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(perSegment);
+    }
+
+    private final class Segment extends LinkedHashMap<String, Integer> {
+        private static final long serialVersionUID = 1L;
+        private final int max;
+
+        Segment(int max) {
+            super(16, 0.75f, true);
+            this.max = max;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            if (size() <= max) return false;
+            evictions.incrementAndGet();
+            return true;
+        }
+    }
+
+    private Segment segmentFor(String name) {
+        int h = name.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /** Returns the cached id or null. */
+    public Integer get(String name) {
+        Segment s = segmentFor(name);
+        Integer id;
+        synchronized (s) { id = s.get(name); }
+        if (id != null) hits.incrementAndGet();
+        else misses.incrementAndGet();
+        return id;
+    }
+
+    public void put(String name, int id) {
+        Segment s = segmentFor(name);
+        synchronized (s) { s.put(name, id); }
+    }
+
+    public void clear() {
+        for (Segment s : segments) {
+            synchronized (s) { s.clear(); }
+        }
+    }
+
+    public int size() {
+        int n = 0;
+        for (Segment s : segments) {
+            synchronized (s) { n += s.size(); }
+        }
+        return n;
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+}
@@ -0,0 +1,85 @@
+package com.chatapp.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * InProcessClusterBus links ChatServer nodes running in one JVM through a shared Hub,
+ * e.g. several nodes started by a test. Each node receives on its own single delivery
+ * thread, which keeps events from one peer in order, as a TCP link would.
+ * A node alone on its hub is the single-server setup: nothing is ever sent.
+ */
+public class InProcessClusterBus extends AbstractClusterBus {
+
+    /** The set of nodes that can see each other. */
+    public static final class Hub {
+        private final Map<Integer, InProcessClusterBus> nodes = new ConcurrentHashMap<>();
+    }
+
+    private final Hub hub;
+    // thread is only started by the first delivered event
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "cluster-delivery");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public InProcessClusterBus(Hub hub, int nodeId) {
+        super(nodeId);
+        this.hub = hub;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        setListener(listener);
+        synchronized (this) {
+            if (hub.nodes.putIfAbsent(nodeId, this) != null) throw new IllegalStateException("node " + nodeId + " already on hub");
+            List<ClusterEvent> mine = snapshot();
+            for (InProcessClusterBus peer : hub.nodes.values()) {
+                if (peer != this) for (ClusterEvent e : mine) peer.deliver(e);
+            }
+        }
+        for (InProcessClusterBus peer : hub.nodes.values()) {
+            if (peer == this) continue;
+            synchronized (peer) {
+                for (ClusterEvent e : peer.snapshot()) deliver(e);
+            }
+        }
+    }
+
+    private void deliver(ClusterEvent e) {
+        try {
+            delivery.execute(() -> receive(e));
+        } catch (RejectedExecutionException ignore) {
+            // node closed
+        }
+    }
+
+    @Override
+    protected boolean send(int node, ClusterEvent e) {
+        InProcessClusterBus peer = node == nodeId ? null : hub.nodes.get(node);
+        if (peer == null) return false;
+        peer.deliver(e);
+        return true;
+    }
+
+    @Override
+    protected void sendAll(ClusterEvent e) {
+        for (InProcessClusterBus peer : hub.nodes.values()) {
+            if (peer != this) peer.deliver(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!hub.nodes.remove(nodeId, this)) return;
+        for (InProcessClusterBus peer : hub.nodes.values()) {
+            peer.delivery.execute(() -> peer.nodeDown(nodeId));
+        }
+        delivery.shutdown();
+    }
+}
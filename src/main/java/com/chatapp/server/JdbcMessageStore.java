@@ -0,0 +1,229 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import com.chatapp.util.Histogram;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * JdbcMessageStore keeps messages in the MySQL messages table.
+ * Batches are inserted in one transaction with a JDBC batch; history pages are keyset range
+ * scans on idx_messages_room / idx_messages_pair. Search hits are primary-key lookups, and a
+ * full scan splits the id range so several connections read it at once.
+ */
+public class JdbcMessageStore implements MessageStore {
+    private static final LongAdder DB_ERRORS = Metrics.counter("chat_db_errors_total");
+    private static final Histogram DB_SAVE_MESSAGE = Metrics.histogram("chat_db_latency_ns{op=\"saveMessage\"}");
+    private static final Histogram DB_SAVE_MESSAGES = Metrics.histogram("chat_db_latency_ns{op=\"saveMessages\"}");
+    private static final Histogram DB_FETCH_HISTORY = Metrics.histogram("chat_db_latency_ns{op=\"fetchHistory\"}");
+    private static final Histogram DB_FETCH_BY_IDS = Metrics.histogram("chat_db_latency_ns{op=\"fetchByIds\"}");
+    private static final Histogram DB_SCAN = Metrics.histogram("chat_db_latency_ns{op=\"scanMessages\"}");
+
+    private static final String INSERT_MESSAGE = "INSERT INTO messages (id, sender, receiver, is_room, text) VALUES (?,?,?,?,?)";
+
+    private final ConnectionPool pool;
+
+    public JdbcMessageStore(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public boolean save(List<Message> msgs) {
+        if (msgs.isEmpty()) return true;
+        if (msgs.size() == 1) return saveOne(msgs.get(0));
+        try (PooledConnection c = pool.acquire(DB_SAVE_MESSAGES)) {
+            Connection conn = c.raw();
+            try {
+                conn.setAutoCommit(false);
+                PreparedStatement p = c.prepare(INSERT_MESSAGE);
+                for (Message m : msgs) {
+                    bindMessage(p, m);
+                    p.addBatch();
+                }
+                p.executeBatch();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                DB_ERRORS.increment();
+                try { conn.rollback(); } catch (SQLException ignore) {}
+                return false;
+            } finally {
+                try { conn.setAutoCommit(true); } catch (SQLException ignore) {}
+            }
+        } catch (SQLException e) {
+            DB_ERRORS.increment();
+            return false;
+        }
+    }
+
+    private boolean saveOne(Message m) {
+        try (PooledConnection c = pool.acquire(DB_SAVE_MESSAGE)) {
+            PreparedStatement p = c.prepare(INSERT_MESSAGE);
+            bindMessage(p, m);
+            p.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            DB_ERRORS.increment();
+            return false;
+        }
+    }
+
+    /** A message id of 0 is inserted as NULL so the database assigns one. */
+    private static void bindMessage(PreparedStatement p, Message m) throws SQLException {
+        if (m.getId() > 0) p.setLong(1, m.getId());
+        else p.setNull(1, Types.BIGINT);
+        p.setString(2, m.getSender());
+        p.setString(3, m.getReceiver());
+        p.setBoolean(4, m.isRoom());
+        p.setString(5, m.getText());
+    }
+
+    private static final String ROOM_BEFORE = "SELECT id, sender, receiver, text, ts FROM messages WHERE receiver=? AND is_room=1 AND id<? ORDER BY id DESC LIMIT ?";
+    private static final String ROOM_AFTER = "SELECT id, sender, receiver, text, ts FROM messages WHERE receiver=? AND is_room=1 AND id>? ORDER BY id ASC LIMIT ?";
+    // one index range scan per direction of the pair, merged; UNION also dedupes a PM to oneself
+    private static final String PM_BEFORE = "SELECT id, sender, receiver, text, ts FROM ("
+            + "(SELECT id, sender, receiver, text, ts FROM messages WHERE sender=? AND receiver=? AND is_room=0 AND id<? ORDER BY id DESC LIMIT ?)"
+            + " UNION "
+            + "(SELECT id, sender, receiver, text, ts FROM messages WHERE sender=? AND receiver=? AND is_room=0 AND id<? ORDER BY id DESC LIMIT ?)"
+            + ") t ORDER BY id DESC LIMIT ?";
+    private static final String PM_AFTER = "SELECT id, sender, receiver, text, ts FROM ("
+            + "(SELECT id, sender, receiver, text, ts FROM messages WHERE sender=? AND receiver=? AND is_room=0 AND id>? ORDER BY id ASC LIMIT ?)"
+            + " UNION "
+            + "(SELECT id, sender, receiver, text, ts FROM messages WHERE sender=? AND receiver=? AND is_room=0 AND id>? ORDER BY id ASC LIMIT ?)"
+            + ") t ORDER BY id ASC LIMIT ?";
+
+    /** Each page is an index range scan, independent of table size. */
+    @Override
+    public List<Map<String,Object>> fetchHistory(String username, String target, boolean isRoom, Long beforeId, Long afterId, int limit) {
+        List<Map<String,Object>> out = new ArrayList<>();
+        boolean after = afterId != null;
+        long cursor = after ? afterId : (beforeId != null ? beforeId : Long.MAX_VALUE);
+        try (PooledConnection c = pool.acquire(DB_FETCH_HISTORY)) {
+            if (isRoom) {
+                PreparedStatement p = c.prepare(after ? ROOM_AFTER : ROOM_BEFORE);
+                p.setString(1, target);
+                p.setLong(2, cursor);
+                p.setInt(3, limit);
+                readRows(p, out);
+            } else {
+                PreparedStatement p = c.prepare(after ? PM_AFTER : PM_BEFORE);
+                p.setString(1, username); p.setString(2, target); p.setLong(3, cursor); p.setInt(4, limit);
+                p.setString(5, target); p.setString(6, username); p.setLong(7, cursor); p.setInt(8, limit);
+                p.setInt(9, limit);
+                readRows(p, out);
+            }
+        } catch (SQLException e) {
+            DB_ERRORS.increment();
+        }
+        return out;
+    }
+
+    /**
+     * One IN query on the primary key. The list is padded to a power of two by repeating the
+     * last id, so a handful of statement shapes cover every page size.
+     */
+    @Override
+    public List<Map<String,Object>> fetchByIds(String username, String target, boolean isRoom, long[] ids) {
+        List<Map<String,Object>> out = new ArrayList<>();
+        if (ids.length == 0) return out;
+        int n = ids.length == 1 ? 1 : Integer.highestOneBit(ids.length - 1) << 1;
+        // the ids come from the search index; the conversation predicate keeps a stale or
+        // colliding id from returning a message of another conversation
+        String sql = "SELECT id, sender, receiver, text, ts FROM messages WHERE id IN ("
+                + String.join(",", Collections.nCopies(n, "?")) + ") AND "
+                + (isRoom ? "receiver=? AND is_room=1" : "is_room=0 AND ((sender=? AND receiver=?) OR (sender=? AND receiver=?))")
+                + " ORDER BY id DESC";
+        try (PooledConnection c = pool.acquire(DB_FETCH_BY_IDS)) {
+            PreparedStatement p = c.prepare(sql);
+            for (int i = 0; i < n; i++) p.setLong(i + 1, ids[Math.min(i, ids.length - 1)]);
+            if (isRoom) {
+                p.setString(n + 1, target);
+            } else {
+                p.setString(n + 1, username);
+                p.setString(n + 2, target);
+                p.setString(n + 3, target);
+                p.setString(n + 4, username);
+            }
+            readRows(p, out);
+        } catch (SQLException e) {
+            DB_ERRORS.increment();
+        }
+        return out;
+    }
+
+    private static final String ID_RANGE = "SELECT MIN(id), MAX(id) FROM messages";
+    private static final String SCAN = "SELECT id, sender, receiver, is_room, text FROM messages WHERE id>=? AND id<? ORDER BY id DESC LIMIT ?";
+
+    /**
+     * Splits [min id, max id] into parallelism * 8 ranges handed out newest first; each range is
+     * read in keyset pages of chunkSize, one pooled connection per page.
+     */
+    @Override
+    public void scan(int parallelism, int chunkSize, Predicate<List<Message>> sink) {
+        long min, max;
+        try (PooledConnection c = pool.acquire(DB_SCAN)) {
+            try (ResultSet rs = c.prepare(ID_RANGE).executeQuery()) {
+                if (!rs.next()) return;
+                min = rs.getLong(1);
+                if (rs.wasNull()) return; // no messages
+                max = rs.getLong(2);
+            }
+        } catch (SQLException e) {
+            DB_ERRORS.increment();
+            return;
+        }
+        int ranges = Math.max(1, parallelism) * 8;
+        long span = (max - min) / ranges + 1;
+        MessageStore.runParallel("message-scan", parallelism, ranges, i -> {
+            long hi = max + 1 - i * span;
+            return hi <= min || scanRange(Math.max(min, hi - span), hi, chunkSize, sink);
+        });
+    }
+
+    /** Pages [lo, hi) newest first; false once sink has had enough or the database failed. */
+    private boolean scanRange(long lo, long hi, int chunkSize, Predicate<List<Message>> sink) {
+        long cursor = hi;
+        while (true) {
+            List<Message> chunk = new ArrayList<>(chunkSize);
+            try (PooledConnection c = pool.acquire(DB_SCAN)) {
+                PreparedStatement p = c.prepare(SCAN);
+                p.setLong(1, lo);
+                p.setLong(2, cursor);
+                p.setInt(3, chunkSize);
+                try (ResultSet rs = p.executeQuery()) {
+                    while (rs.next()) {
+                        chunk.add(new Message(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getBoolean(4), rs.getString(5)));
+                    }
+                }
+            } catch (SQLException e) {
+                DB_ERRORS.increment();
+                return false;
+            }
+            if (chunk.isEmpty()) return true;
+            if (!sink.test(chunk)) return false;
+            if (chunk.size() < chunkSize) return true;
+            cursor = chunk.get(chunk.size() - 1).getId();
+        }
+    }
+
+    private static void readRows(PreparedStatement p, List<Map<String,Object>> out) throws SQLException {
+        try (ResultSet rs = p.executeQuery()) {
+            while (rs.next()) {
+                Map<String,Object> row = new HashMap<>();
+                row.put("id", rs.getLong("id"));
+                row.put("sender", rs.getString("sender"));
+                row.put("receiver", rs.getString("receiver"));
+                row.put("text", rs.getString("text"));
+                row.put("ts", rs.getTimestamp("ts").toString());
+                out.add(row);
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import com.chatapp.util.Config;
+import com.chatapp.util.Histogram;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * JdbcStorage keeps users, rooms, invites and sessions in a SQL database: MySQL, or an
+ * embedded H2 in MySQL mode. Messages go to the given MessageStore, or to the messages table.
+ * Every call borrows its own connection from a bounded ConnectionPool (sized via Config),
+ * so DB work from concurrent clients runs in parallel instead of on one shared socket.
+ */
+public class JdbcStorage implements Storage {
+    // time from borrowing a connection to returning it, per operation; errors are counted, not thrown
+    private static final LongAdder DB_ERRORS = Metrics.counter("chat_db_errors_total");
+    private static final Histogram DB_CREATE_USER = Metrics.histogram("chat_db_latency_ns{op=\"createUser\"}");
+    private static final Histogram DB_FETCH_STORED_PASSWORD = Metrics.histogram("chat_db_latency_ns{op=\"fetchStoredPassword\"}");
+    private static final Histogram DB_ENSURE_ROOM = Metrics.histogram("chat_db_latency_ns{op=\"ensureRoom\"}");
+    private static final Histogram DB_ADD_MEMBERSHIP = Metrics.histogram("chat_db_latency_ns{op=\"addMembership\"}");
+    private static final Histogram DB_REMOVE_MEMBERSHIP = Metrics.histogram("chat_db_latency_ns{op=\"removeMembership\"}");
+    private static final Histogram DB_FETCH_MEMBERSHIPS = Metrics.histogram("chat_db_latency_ns{op=\"fetchMemberships\"}");
+    private static final Histogram DB_IS_ROOM = Metrics.histogram("chat_db_latency_ns{op=\"isRoom\"}");
+    private static final Histogram DB_CREATE_INVITE = Metrics.histogram("chat_db_latency_ns{op=\"createInvite\"}");
+    private static final Histogram DB_INVITE_AVAILABLE = Metrics.histogram("chat_db_latency_ns{op=\"inviteAvailable\"}");
+    private static final Histogram DB_USE_INVITE = Metrics.histogram("chat_db_latency_ns{op=\"useInvite\"}");
+    private static final Histogram DB_SAVE_SESSION = Metrics.histogram("chat_db_latency_ns{op=\"saveSession\"}");
+    private static final Histogram DB_FETCH_SESSION = Metrics.histogram("chat_db_latency_ns{op=\"fetchSession\"}");
+    private static final Histogram DB_DELETE_SESSION = Metrics.histogram("chat_db_latency_ns{op=\"deleteSession\"}");
+    private static final Histogram DB_DELETE_EXPIRED_SESSIONS = Metrics.histogram("chat_db_latency_ns{op=\"deleteExpiredSessions\"}");
+
+    private final ConnectionPool pool;
+    private final MessageStore messages;
+    private final IdCache userIds = new IdCache(Config.ID_CACHE_SIZE);
+    private final IdCache roomIds = new IdCache(Config.ID_CACHE_SIZE);
+
+    /** Connects and creates missing tables; messages go to the given store, or to the messages table if it is null. */
+    public JdbcStorage(String url, String user, String pass, MessageStore messages) throws SQLException {
+        ConnectionPool p = new ConnectionPool(url, user, pass,
+                Config.DB_POOL_SIZE, Config.DB_ACQUIRE_TIMEOUT_MS, Config.DB_VALIDATE_AFTER_MS, Config.DB_QUERY_TIMEOUT_SECONDS);
+        try (PooledConnection c = p.acquire()) {
+            createSchema(c.raw());
+        }
+        this.pool = p;
+        this.messages = messages != null ? messages : new JdbcMessageStore(p);
+    }
+
+    public ConnectionPool getPool() { return pool; }
+    public IdCache getUserIds() { return userIds; }
+    public IdCache getRoomIds() { return roomIds; }
+
+    private static void createSchema(Connection conn) throws SQLException {
+        try (Statement s = conn.createStatement()) {
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS users (id INT AUTO_INCREMENT PRIMARY KEY, username VARCHAR(100) NOT NULL UNIQUE, password_hash VARCHAR(512) NOT NULL, created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"); 
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS rooms (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(100) NOT NULL UNIQUE)"); 
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS memberships (user_id INT NOT NULL, room_id INT NOT NULL, PRIMARY KEY(user_id, room_id))"); 
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS messages (id BIGINT AUTO_INCREMENT PRIMARY KEY, sender VARCHAR(100) NOT NULL, receiver VARCHAR(100) NOT NULL, is_room BOOLEAN NOT NULL, text TEXT NOT NULL, ts TIMESTAMP DEFAULT CURRENT_TIMESTAMP, KEY idx_messages_room (receiver, is_room, id), KEY idx_messages_pair (sender, receiver, is_room, id))"); 
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS invites (token VARCHAR(128) PRIMARY KEY, used BOOLEAN DEFAULT FALSE, created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"); 
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS sessions (token_hash CHAR(64) PRIMARY KEY, username VARCHAR(100) NOT NULL, expires_at BIGINT NOT NULL)"); 
+        }
+        // tables created before the indexes existed
+        addIndex(conn, "CREATE INDEX idx_messages_room ON messages (receiver, is_room, id)");
+        addIndex(conn, "CREATE INDEX idx_messages_pair ON messages (sender, receiver, is_room, id)");
+    }
+
+    private static void addIndex(Connection conn, String ddl) {
+        try (Statement s = conn.createStatement()) {
+            s.executeUpdate(ddl);
+        } catch (SQLException ignore) {
+            // already exists
+        }
+    }
+
+    // ========== Users ==========
+    @Override
+    public boolean createUser(String username, String passwordHash) {
+        String sql = "INSERT INTO users (username, password_hash) VALUES (?,?)";
+        try (PooledConnection c = pool.acquire(DB_CREATE_USER)) {
+            PreparedStatement p = c.prepareReturningKeys(sql);
+            p.setString(1, username);
+            p.setString(2, passwordHash);
+            p.executeUpdate();
+            try (ResultSet keys = p.getGeneratedKeys()) {
+                if (keys.next()) userIds.put(username, keys.getInt(1));
+            }
+            return true;
+        } catch (SQLException e) {
+            // a duplicate username is an expected outcome, not a DB failure
+            if (!(e instanceof SQLIntegrityConstraintViolationException)) DB_ERRORS.increment();
+            return false;
+        }
+    }
+
+    @Override
+    public String fetchStoredPassword(String username) {
+        String sql = "SELECT id, password_hash FROM users WHERE username=?";
+        try (PooledConnection c = pool.acquire(DB_FETCH_STORED_PASSWORD)) {
+            PreparedStatement p = c.prepare(sql);
+            p.setString(1, username);
+            try (ResultSet rs = p.executeQuery()) {
+                if (!rs.next()) return null;
+                userIds.put(username, rs.getInt(1));
+                return rs.getString(2);
+            }
+        } catch (SQLException e) {
+            DB_ERRORS.increment();
+            return null;
+        }
+    }
+
+    private Integer userId(PooledConnection c, String username) throws SQLException {
+        Integer id = userIds.get(username);
+        if (id != null) return id;
+        PreparedStatement p = c.prepare("SELECT id FROM users WHERE username=?");
+        p.setString(1, username);
+        try (ResultSet rs = p.executeQuery()) {
+            if (!rs.next()) return null;
+            id = rs.getInt(1);
+        }
+        userIds.put(username, id);
+        return id;
+    }
+
+    // ========== Rooms & memberships ==========
+    @Override
+    public void ensureRoom(String name) {
+        if (roomIds.get(name) != null) return;
+        String sql = "INSERT IGNORE INTO rooms (name) VALUES (?)";
+        try (PooledConnection c = pool.acquire(DB_ENSURE_ROOM)) {
+            PreparedStatement p = c.prepareReturningKeys(sql);
+            p.setString(1, name);
+            if (p.executeUpdate() == 1) {
+                try (ResultSet keys = p.getGeneratedKeys()) {
+                    if (keys.next()) { roomIds.put(name, keys.getInt(1)); return; }
+                }
+            }
+            loadRoomId(c, name);
+        } catch (SQLException e) { DB_ERRORS.increment(); }
+    }
+
+    private Integer roomId(PooledConnection c, String name) throws SQLException {
+        Integer id = roomIds.get(name);
+        return id != null ? id : loadRoomId(c, name);
+    }
+
+    private Integer loadRoomId(PooledConnection c, String name) throws SQLException {
+        PreparedStatement p = c.prepare("SELECT id FROM rooms WHERE name=?");
+        p.setString(1, name);
+        int id;
+        try (ResultSet rs = p.executeQuery()) {
+            if (!rs.next()) return null;
+            id = rs.getInt(1);
+        }
+        roomIds.put(name, id);
+        return id;
+    }
+
+    @Override
+    public void addMembership(String username, String room) {
+        try (PooledConnection c = pool.acquire(DB_ADD_MEMBERSHIP)) {
+            Integer uid = userId(c, username), rid = roomId(c, room);
+            if (uid != null && rid != null) {
+                PreparedStatement p = c.prepare("INSERT IGNORE INTO memberships (user_id, room_id) VALUES (?,?)");
+                p.setInt(1, uid); p.setInt(2, rid); p.executeUpdate();
+            }
+        } catch (SQLException e) { DB_ERRORS.increment(); }
+    }
+
+    @Override
+    public void removeMembership(String username, String room) {
+        try (PooledConnection c = pool.acquire(DB_REMOVE_MEMBERSHIP)) {
+            Integer uid = userId(c, username), rid = roomId(c, room);
+            if (uid != null && rid != null) {
+                PreparedStatement p = c.prepare("DELETE FROM memberships WHERE user_id=? AND room_id=?");
+                p.setInt(1, uid); p.setInt(2, rid); p.executeUpdate();
+            }
+        } catch (SQLException e) { DB_ERRORS.increment(); }
+    }
+
+    /** One join on the memberships primary key; the room ids land in the id cache on the way. */
+    @Override
+    public List<String> fetchMemberships(String username) {
+        List<String> out = new ArrayList<>();
+        try (PooledConnection c = pool.acquire(DB_FETCH_MEMBERSHIPS)) {
+            Integer uid = userId(c, username);
+            if (uid == null) return out;
+            PreparedStatement p = c.prepare("SELECT r.id, r.name FROM memberships m JOIN rooms r ON r.id=m.room_id WHERE m.user_id=?");
+            p.setInt(1, uid);
+            try (ResultSet rs = p.executeQuery()) {
+                while (rs.next()) {
+                    roomIds.put(rs.getString(2), rs.getInt(1));
+                    out.add(rs.getString(2));
+                }
+            }
+        } catch (SQLException e) { DB_ERRORS.increment(); }
+        return out;
+    }
+
+    // ========== Messages ==========
+    @Override
+    public boolean saveMessages(List<Message> msgs) {
+        return messages.save(msgs);
+    }
+
+    @Override
+    public List<Map<String,Object>> fetchHistory(String username, String target, boolean isRoom, Long beforeId, Long afterId, int limit) {
+        return messages.fetchHistory(username, target, isRoom, beforeId, afterId, limit);
+    }
+
+    @Override
+    public List<Map<String,Object>> fetchMessages(String username, String target, boolean isRoom, long[] ids) {
+        return messages.fetchByIds(username, target, isRoom, ids);
+    }
+
+    @Override
+    public void scanMessages(int parallelism, int chunkSize, Predicate<List<Message>> sink) {
+        messages.scan(parallelism, chunkSize, sink);
+    }
+
+    @Override
+    public boolean isRoom(String name) {
+        if (roomIds.get(name) != null) return true;
+        try (PooledConnection c = pool.acquire(DB_IS_ROOM)) {
+            return loadRoomId(c, name) != null;
+        } catch (SQLException e) { DB_ERRORS.increment(); return false; }
+    }
+
+    // ========== Invites ==========
+    @Override
+    public void createInvite(String token) {
+        String sql = "INSERT IGNORE INTO invites (token, used) VALUES (?, FALSE)";
+        try (PooledConnection c = pool.acquire(DB_CREATE_INVITE)) {
+            PreparedStatement p = c.prepare(sql);
+            p.setString(1, token);
+            p.executeUpdate();
+        } catch (SQLException e) { DB_ERRORS.increment(); }
+    }
+
+    @Override
+    public boolean inviteAvailable(String token) {
+        String sql = "SELECT 1 FROM invites WHERE token=? AND used=FALSE";
+        try (PooledConnection c = pool.acquire(DB_INVITE_AVAILABLE)) {
+            PreparedStatement p = c.prepare(sql);
+            p.setString(1, token);
+            try (ResultSet rs = p.executeQuery()) { return rs.next(); }
+        } catch (SQLException e) { DB_ERRORS.increment(); return false; }
+    }
+
+    /** Marks the token used; the conditional UPDATE makes check-and-set atomic across pooled connections. */
+    @Override
+    public boolean useInvite(String token) {
+        String sql = "UPDATE invites SET used=TRUE WHERE token=? AND used=FALSE";
+        try (PooledConnection c = pool.acquire(DB_USE_INVITE)) {
+            PreparedStatement p = c.prepare(sql);
+            p.setString(1, token);
+            return p.executeUpdate() == 1;
+        } catch (SQLException e) { DB_ERRORS.increment(); return false; }
+    }
+
+    // ========== Sessions ==========
+    @Override
+    public void saveSession(String tokenHash, String username, long expiresAt) {
+        String sql = "INSERT INTO sessions (token_hash, username, expires_at) VALUES (?,?,?)";
+        try (PooledConnection c = pool.acquire(DB_SAVE_SESSION)) {
+            PreparedStatement p = c.prepare(sql);
+            p.setString(1, tokenHash);
+            p.setString(2, username);
+            p.setLong(3, expiresAt);
+            p.executeUpdate();
+        } catch (SQLException e) { DB_ERRORS.increment(); }
+    }
+
+    @Override
+    public StoredSession fetchSession(String tokenHash) {
+        String sql = "SELECT username, expires_at FROM sessions WHERE token_hash=?";
+        try (PooledConnection c = pool.acquire(DB_FETCH_SESSION)) {
+            PreparedStatement p = c.prepare(sql);
+            p.setString(1, tokenHash);
+            try (ResultSet rs = p.executeQuery()) {
+                if (!rs.next()) return null;
+                return new StoredSession(rs.getString(1), rs.getLong(2));
+            }
+        } catch (SQLException e) { DB_ERRORS.increment(); return null; }
+    }
+
+    @Override
+    public void deleteSession(String tokenHash) {
+        String sql = "DELETE FROM sessions WHERE token_hash=?";
+        try (PooledConnection c = pool.acquire(DB_DELETE_SESSION)) {
+            PreparedStatement p = c.prepare(sql);
+            p.setString(1, tokenHash);
+            p.executeUpdate();
+        } catch (SQLException e) { DB_ERRORS.increment(); }
+    }
+
+    @Override
+    public void deleteExpiredSessions(long now) {
+        String sql = "DELETE FROM sessions WHERE expires_at<=?";
+        try (PooledConnection c = pool.acquire(DB_DELETE_EXPIRED_SESSIONS)) {
+            PreparedStatement p = c.prepare(sql);
+            p.setLong(1, now);
+            p.executeUpdate();
+        } catch (SQLException e) { DB_ERRORS.increment(); }
+    }
+
+    @Override
+    public void close() {
+        messages.close();
+        pool.close();
+    }
+}
@@ -0,0 +1,454 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import com.chatapp.util.Histogram;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * LogMessageStore keeps messages in append-only segment files on local disk.
+ *
+ * Every message is one record appended to the current segment; a batch is one positional
+ * write. Each record carries the position of the previous record of the same conversation
+ * (room, or PM pair), so a history page walks one conversation backwards through the
+ * read-only memory map without touching anyone else's messages. The in-memory index per
+ * conversation holds its tail and a sparse (id, position) checkpoint every CHECKPOINT_EVERY
+ * records, which bounds the walk for a page that starts at a cursor.
+ *
+ * Segments are preallocated, zero-filled files named by the global position of their first
+ * byte; a record that does not fit rolls to a new segment. On open all segments are scanned,
+ * the index is rebuilt, and a torn or corrupt record (bad length or CRC) ends the segment and
+ * is zeroed, so the next append overwrites it.
+ *
+ * Search hits are found from the nearest checkpoint after their id, and a full scan reads the
+ * segments newest first, one per thread.
+ *
+ * Record layout: len:int crc:int | id:long ts:long prev:long room:byte sender receiver text,
+ * with sender and receiver prefixed by a 16-bit length, text by a 32-bit one, and the CRC over
+ * everything after it; a batch with a name too long for its prefix is refused whole. Pages and
+ * checkpoints need each conversation stored in ascending id order: MessageWriter takes ids and
+ * queues messages under one lock, and a batch is sorted by id before it is written.
+ */
+public class LogMessageStore implements MessageStore {
+    private static final Histogram APPEND_LATENCY = Metrics.histogram("chat_log_append_ns");
+    private static final Histogram READ_LATENCY = Metrics.histogram("chat_log_read_ns");
+
+    private static final int CHECKPOINT_EVERY = 32;
+    private static final int HEADER = 8;     // len + crc
+    private static final int FIXED = 8 + 8 + 8 + 1; // id, ts, prev, room flag
+    private static final int OFF_ID = HEADER, OFF_TS = HEADER + 8, OFF_PREV = HEADER + 16, OFF_ROOM = HEADER + 24;
+    private static final int MAX_NAME_BYTES = 0xffff;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean fsync;
+    private final Map<String, Conv> convs = new ConcurrentHashMap<>();
+    private volatile Segment[] segments = new Segment[0];
+
+    // writer state, guarded by this
+    private Segment active;
+    private int writeOffset;
+    private long lastId;
+    private ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+
+    public LogMessageStore(Path dir, int segmentBytes, boolean fsync) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    /** One segment file, mapped read-only over its whole preallocated length. */
+    private record Segment(long base, FileChannel ch, MappedByteBuffer map) {
+        int capacity() { return map.capacity(); }
+    }
+
+    /** Per-conversation index: tail record plus a sparse id-to-position checkpoint list. */
+    private static final class Conv {
+        long tailPos = -1;
+        int count;
+        long[] ckIds = new long[4];
+        long[] ckPos = new long[4];
+        int cks;
+
+        synchronized void append(long id, long pos) {
+            if (count++ % CHECKPOINT_EVERY == 0) {
+                if (cks == ckIds.length) {
+                    ckIds = Arrays.copyOf(ckIds, cks * 2);
+                    ckPos = Arrays.copyOf(ckPos, cks * 2);
+                }
+                ckIds[cks] = id;
+                ckPos[cks++] = pos;
+            }
+            tailPos = pos;
+        }
+
+        /** Position to start walking back from so the page older than beforeId is reached within one checkpoint interval. */
+        synchronized long startBefore(Long beforeId) {
+            if (beforeId == null) return tailPos;
+            int j = firstAtLeast(beforeId);
+            return j < cks ? ckPos[j] : tailPos;
+        }
+
+        /** Position to start walking back from so that the limit records after afterId all lie behind it. */
+        synchronized long startAfter(long afterId, int limit) {
+            int j = firstAtLeast(afterId + 1) - 1; // last checkpoint at or before afterId
+            int m = j + 1 + (limit + CHECKPOINT_EVERY - 1) / CHECKPOINT_EVERY;
+            return m < cks ? ckPos[m] : tailPos;
+        }
+
+        private int firstAtLeast(long id) {
+            int lo = 0, hi = cks;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ckIds[mid] < id) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    private record Pending(Conv conv, long id, long pos) {}
+
+    // ========== Writes ==========
+
+    /** Appends the batch with one write per segment touched; the index is updated after the bytes are written. */
+    @Override
+    public synchronized boolean save(List<Message> msgs) {
+        if (msgs.isEmpty()) return true;
+        long t0 = System.nanoTime();
+        Segment startSeg = active;
+        int startOffset = writeOffset;
+        long startId = lastId;
+        if (msgs.size() > 1) {
+            msgs = new ArrayList<>(msgs);
+            msgs.sort(Comparator.comparingLong(Message::getId));
+        }
+        Map<String, Long> tails = new HashMap<>();
+        List<Pending> pending = new ArrayList<>(msgs.size());
+        try {
+            buf.clear();
+            for (Message m : msgs) {
+                String k = MessageStore.conversation(m.getSender(), m.getReceiver(), m.isRoom());
+                Conv c = convs.computeIfAbsent(k, x -> new Conv());
+                long prev = tails.computeIfAbsent(k, x -> c.tailPos);
+                long id = m.getId() > 0 ? m.getId() : lastId + 1;
+                lastId = Math.max(lastId, id);
+                byte[] rec = encode(id, System.currentTimeMillis(), prev, m);
+                if (writeOffset + buf.position() + rec.length > active.capacity()) {
+                    flush();
+                    roll(rec.length);
+                }
+                long pos = active.base() + writeOffset + buf.position();
+                if (buf.remaining() < rec.length) buf = grow(buf, rec.length);
+                buf.put(rec);
+                tails.put(k, pos);
+                pending.add(new Pending(c, id, pos));
+            }
+            flush();
+            if (fsync) active.ch().force(false);
+        } catch (IOException | IllegalArgumentException e) {
+            // the torn bytes stay behind the write offset and are overwritten by the next append;
+            // after a roll the earlier segment is left as written and the new one starts over
+            if (active == startSeg) writeOffset = startOffset;
+            else writeOffset = 0;
+            lastId = startId;
+            return false;
+        }
+        for (Pending p : pending) p.conv().append(p.id(), p.pos());
+        APPEND_LATENCY.record(System.nanoTime() - t0);
+        return true;
+    }
+
+    private void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) writeOffset += active.ch().write(buf, writeOffset);
+        buf.clear();
+    }
+
+    private static ByteBuffer grow(ByteBuffer b, int need) {
+        ByteBuffer n = ByteBuffer.allocate(Math.max(b.capacity() * 2, b.position() + need));
+        b.flip();
+        return n.put(b);
+    }
+
+    private static byte[] encode(long id, long ts, long prev, Message m) {
+        byte[] s = m.getSender().getBytes(StandardCharsets.UTF_8);
+        byte[] r = m.getReceiver().getBytes(StandardCharsets.UTF_8);
+        if (s.length > MAX_NAME_BYTES || r.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("name longer than " + MAX_NAME_BYTES + " bytes in message " + m.getId());
+        }
+        byte[] t = m.getText().getBytes(StandardCharsets.UTF_8);
+        int len = FIXED + 2 + s.length + 2 + r.length + 4 + t.length;
+        ByteBuffer b = ByteBuffer.allocate(HEADER + len);
+        b.putInt(len).putInt(0).putLong(id).putLong(ts).putLong(prev).put((byte) (m.isRoom() ? 1 : 0));
+        b.putShort((short) s.length).put(s).putShort((short) r.length).put(r).putInt(t.length).put(t);
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), HEADER, len);
+        b.putInt(4, (int) crc.getValue());
+        return b.array();
+    }
+
+    /** Starts a new segment right after the bytes used in the current one. */
+    private void roll(int recordBytes) throws IOException {
+        long base = active == null ? 0 : active.base() + writeOffset;
+        if (active != null && fsync) active.ch().force(false);
+        Segment s = open(base, Math.max(segmentBytes, recordBytes));
+        Segment[] next = Arrays.copyOf(segments, segments.length + 1);
+        next[next.length - 1] = s;
+        segments = next;
+        active = s;
+        writeOffset = 0;
+    }
+
+    private Segment open(long base, int size) throws IOException {
+        Path p = dir.resolve(String.format("segment-%020d.log", base));
+        try (RandomAccessFile f = new RandomAccessFile(p.toFile(), "rw")) {
+            if (f.length() < size) f.setLength(size);
+        }
+        FileChannel ch = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(base, ch, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+    }
+
+    // ========== Recovery ==========
+
+    private void recover() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "segment-*.log")) {
+            for (Path p : ds) {
+                String n = p.getFileName().toString();
+                bases.add(Long.parseLong(n.substring(8, n.length() - 4)));
+            }
+        }
+        Collections.sort(bases);
+        List<Segment> segs = new ArrayList<>();
+        for (long base : bases) {
+            Segment s = open(base, 0);
+            segs.add(s);
+            active = s;
+            writeOffset = scan(s);
+        }
+        segments = segs.toArray(new Segment[0]);
+        if (active == null) roll(0);
+    }
+
+    /** Indexes the valid records of one segment and returns the offset after the last one. */
+    private int scan(Segment s) throws IOException {
+        ByteBuffer m = s.map();
+        int off = 0;
+        CRC32 crc = new CRC32();
+        while (off + HEADER <= s.capacity()) {
+            int len = m.getInt(off);
+            if (len == 0) break;
+            boolean ok = len >= FIXED && len <= s.capacity() - off - HEADER;
+            if (ok) {
+                crc.reset();
+                crc.update(m.slice(off + HEADER, len));
+                ok = (int) crc.getValue() == m.getInt(off + 4);
+            }
+            if (!ok) {
+                // torn tail: clear the rest of the segment so a stale record behind it can never be read back
+                zero(s.ch(), off, s.capacity());
+                break;
+            }
+            long id = m.getLong(off + OFF_ID);
+            long pos = s.base() + off;
+            String sender = str(m, off + OFF_ROOM + 1);
+            String receiver = str(m, off + OFF_ROOM + 3 + strLen(m, off + OFF_ROOM + 1));
+            boolean room = m.get(off + OFF_ROOM) == 1;
+            convs.computeIfAbsent(MessageStore.conversation(sender, receiver, room), x -> new Conv()).append(id, pos);
+            lastId = Math.max(lastId, id);
+            off += HEADER + len;
+        }
+        return off;
+    }
+
+    private static void zero(FileChannel ch, long from, long to) throws IOException {
+        ByteBuffer z = ByteBuffer.allocate(1 << 16);
+        for (long p = from; p < to; p += z.capacity()) {
+            z.clear().limit((int) Math.min(z.capacity(), to - p));
+            while (z.hasRemaining()) ch.write(z, p + z.position());
+        }
+        ch.force(false);
+    }
+
+    // ========== Reads ==========
+
+    @Override
+    public List<Map<String,Object>> fetchHistory(String username, String target, boolean isRoom, Long beforeId, Long afterId, int limit) {
+        long t0 = System.nanoTime();
+        List<Map<String,Object>> out = new ArrayList<>();
+        Conv c = convs.get(MessageStore.conversation(username, target, isRoom));
+        if (c != null) {
+            if (afterId != null) pageAfter(c, afterId, limit, out);
+            else pageBefore(c, beforeId, limit, out);
+        }
+        READ_LATENCY.record(System.nanoTime() - t0);
+        return out;
+    }
+
+    private void pageBefore(Conv c, Long beforeId, int limit, List<Map<String,Object>> out) {
+        long before = beforeId != null ? beforeId : Long.MAX_VALUE;
+        for (long pos = c.startBefore(beforeId); pos >= 0 && out.size() < limit; ) {
+            ByteBuffer m = mapAt(pos);
+            if (m == null) break;
+            int off = offset(pos);
+            if (m.getLong(off + OFF_ID) < before) out.add(row(m, off));
+            pos = m.getLong(off + OFF_PREV);
+        }
+    }
+
+    /** Walks back to afterId collecting positions, then decodes the oldest limit of them. */
+    private void pageAfter(Conv c, long afterId, int limit, List<Map<String,Object>> out) {
+        long[] found = new long[limit + 2 * CHECKPOINT_EVERY];
+        int n = 0;
+        for (long pos = c.startAfter(afterId, limit); pos >= 0; ) {
+            ByteBuffer m = mapAt(pos);
+            if (m == null) break;
+            int off = offset(pos);
+            if (m.getLong(off + OFF_ID) <= afterId) break;
+            if (n == found.length) found = Arrays.copyOf(found, n * 2);
+            found[n++] = pos;
+            pos = m.getLong(off + OFF_PREV);
+        }
+        for (int i = n - 1; i >= 0 && out.size() < limit; i--) out.add(row(mapAt(found[i]), offset(found[i])));
+    }
+
+    /** ids are walked newest first; each walk starts at the checkpoint after the id, or where the last one stopped. */
+    @Override
+    public List<Map<String,Object>> fetchByIds(String username, String target, boolean isRoom, long[] ids) {
+        long t0 = System.nanoTime();
+        List<Map<String,Object>> out = new ArrayList<>();
+        Conv c = convs.get(MessageStore.conversation(username, target, isRoom));
+        if (c == null) return out;
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        long pos = Long.MAX_VALUE;
+        for (int k = sorted.length - 1; k >= 0 && pos >= 0; k--) {
+            long id = sorted[k];
+            pos = Math.min(pos, c.startBefore(id + 1));
+            while (pos >= 0) {
+                ByteBuffer m = mapAt(pos);
+                if (m == null) { pos = -1; break; }
+                int off = offset(pos);
+                long found = m.getLong(off + OFF_ID);
+                if (found < id) break;
+                if (found == id) out.add(row(m, off));
+                pos = m.getLong(off + OFF_PREV);
+            }
+        }
+        READ_LATENCY.record(System.nanoTime() - t0);
+        return out;
+    }
+
+    /** One task per segment, newest segment first; a record that fails its CRC (still being written) ends the segment. */
+    @Override
+    public void scan(int parallelism, int chunkSize, Predicate<List<Message>> sink) {
+        Segment[] segs = segments;
+        MessageStore.runParallel("message-scan", parallelism, segs.length, i -> {
+            Segment s = segs[segs.length - 1 - i];
+            ByteBuffer m = s.map();
+            CRC32 crc = new CRC32();
+            List<Message> chunk = new ArrayList<>(chunkSize);
+            for (int off = 0; off + HEADER <= s.capacity(); ) {
+                int len = m.getInt(off);
+                if (len < FIXED || len > s.capacity() - off - HEADER) break;
+                crc.reset();
+                crc.update(m.slice(off + HEADER, len));
+                if ((int) crc.getValue() != m.getInt(off + 4)) break;
+                chunk.add(message(m, off));
+                if (chunk.size() == chunkSize) {
+                    if (!sink.test(chunk)) return false;
+                    chunk = new ArrayList<>(chunkSize);
+                }
+                off += HEADER + len;
+            }
+            return chunk.isEmpty() || sink.test(chunk);
+        });
+    }
+
+    /** The mapping holding a record, or null if the position is unknown or its bytes were lost in recovery. */
+    private ByteBuffer mapAt(long pos) {
+        Segment s = segmentOf(pos);
+        if (s == null) return null;
+        int off = (int) (pos - s.base());
+        return s.map().getInt(off) == 0 ? null : s.map();
+    }
+
+    private int offset(long pos) {
+        return (int) (pos - segmentOf(pos).base());
+    }
+
+    private Segment segmentOf(long pos) {
+        Segment[] segs = segments;
+        int lo = 0, hi = segs.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (segs[mid].base() <= pos) { found = mid; lo = mid + 1; } else hi = mid - 1;
+        }
+        if (found < 0 || pos - segs[found].base() >= segs[found].capacity()) return null;
+        return segs[found];
+    }
+
+    private static Map<String,Object> row(ByteBuffer m, int off) {
+        int p = off + OFF_ROOM + 1;
+        String sender = str(m, p);
+        p += 2 + strLen(m, p);
+        String receiver = str(m, p);
+        p += 2 + strLen(m, p);
+        byte[] text = new byte[m.getInt(p)];
+        m.get(p + 4, text);
+        Map<String,Object> row = new HashMap<>();
+        row.put("id", m.getLong(off + OFF_ID));
+        row.put("sender", sender);
+        row.put("receiver", receiver);
+        row.put("text", new String(text, StandardCharsets.UTF_8));
+        row.put("ts", new Timestamp(m.getLong(off + OFF_TS)).toString());
+        return row;
+    }
+
+    private static Message message(ByteBuffer m, int off) {
+        int p = off + OFF_ROOM + 1;
+        String sender = str(m, p);
+        p += 2 + strLen(m, p);
+        String receiver = str(m, p);
+        p += 2 + strLen(m, p);
+        byte[] text = new byte[m.getInt(p)];
+        m.get(p + 4, text);
+        return new Message(m.getLong(off + OFF_ID), sender, receiver, m.get(off + OFF_ROOM) == 1, new String(text, StandardCharsets.UTF_8));
+    }
+
+    private static String str(ByteBuffer m, int p) {
+        byte[] b = new byte[strLen(m, p)];
+        m.get(p + 2, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static int strLen(ByteBuffer m, int p) {
+        return m.getShort(p) & 0xffff;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment s : segments) {
+            try {
+                if (fsync) s.ch().force(false);
+                s.ch().close();
+            } catch (IOException ignore) {}
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * MemoryMessageStore keeps every message on the heap, one id-sorted array per conversation,
+ * so a history page is a binary search plus a copy. A conversation that reaches
+ * maxPerConversation messages forgets its older half. Nothing survives a restart; it is meant
+ * for tests, benchmarks and throwaway servers (MemoryStorage).
+ */
+public class MemoryMessageStore implements MessageStore {
+    private final Map<String, Conv> convs = new ConcurrentHashMap<>();
+    private final int maxPerConversation;
+    private long lastId; // guarded by this
+
+    public MemoryMessageStore(int maxPerConversation) {
+        this.maxPerConversation = Math.max(2, maxPerConversation);
+    }
+
+    /** One conversation: parallel arrays sorted by id. */
+    private final class Conv {
+        long[] ids = new long[8];
+        long[] ts = new long[8];
+        Message[] msgs = new Message[8];
+        int size;
+
+        synchronized void add(Message m, long now) {
+            if (size == maxPerConversation) {
+                int drop = size / 2;
+                System.arraycopy(ids, drop, ids, 0, size - drop);
+                System.arraycopy(ts, drop, ts, 0, size - drop);
+                System.arraycopy(msgs, drop, msgs, 0, size - drop);
+                Arrays.fill(msgs, size - drop, size, null);
+                size -= drop;
+            }
+            if (size == ids.length) {
+                int n = Math.min(size * 2, maxPerConversation);
+                ids = Arrays.copyOf(ids, n);
+                ts = Arrays.copyOf(ts, n);
+                msgs = Arrays.copyOf(msgs, n);
+            }
+            // ids normally arrive in order; anything older is moved into place
+            int i = size;
+            while (i > 0 && ids[i - 1] > m.getId()) i--;
+            System.arraycopy(ids, i, ids, i + 1, size - i);
+            System.arraycopy(ts, i, ts, i + 1, size - i);
+            System.arraycopy(msgs, i, msgs, i + 1, size - i);
+            ids[i] = m.getId();
+            ts[i] = now;
+            msgs[i] = m;
+            size++;
+        }
+
+        synchronized void page(Long beforeId, Long afterId, int limit, List<Map<String,Object>> out) {
+            if (afterId != null) {
+                for (int i = firstAbove(afterId); i < size && out.size() < limit; i++) out.add(row(i));
+            } else {
+                int from = beforeId == null ? size : firstAbove(beforeId - 1);
+                for (int i = from - 1; i >= 0 && out.size() < limit; i--) out.add(row(i));
+            }
+        }
+
+        /** wanted is sorted ascending; rows come out newest first. */
+        synchronized void byIds(long[] wanted, List<Map<String,Object>> out) {
+            for (int k = wanted.length - 1; k >= 0; k--) {
+                long id = wanted[k];
+                int i = firstAbove(id - 1);
+                if (i < size && ids[i] == id) out.add(row(i));
+            }
+        }
+
+        synchronized List<Message> snapshot() {
+            return new ArrayList<>(Arrays.asList(msgs).subList(0, size));
+        }
+
+        private int firstAbove(long id) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ids[mid] <= id) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        private Map<String,Object> row(int i) {
+            Message m = msgs[i];
+            Map<String,Object> row = new HashMap<>();
+            row.put("id", m.getId());
+            row.put("sender", m.getSender());
+            row.put("receiver", m.getReceiver());
+            row.put("text", m.getText());
+            row.put("ts", new Timestamp(ts[i]).toString());
+            return row;
+        }
+    }
+
+    @Override
+    public boolean save(List<Message> msgs) {
+        long now = System.currentTimeMillis();
+        for (Message m : msgs) {
+            if (m.getId() <= 0) m = new Message(nextId(), m.getSender(), m.getReceiver(), m.isRoom(), m.getText());
+            else seenId(m.getId());
+            convs.computeIfAbsent(MessageStore.conversation(m.getSender(), m.getReceiver(), m.isRoom()), k -> new Conv()).add(m, now);
+        }
+        return true;
+    }
+
+    private synchronized long nextId() { return ++lastId; }
+    private synchronized void seenId(long id) { lastId = Math.max(lastId, id); }
+
+    @Override
+    public List<Map<String,Object>> fetchHistory(String username, String target, boolean isRoom, Long beforeId, Long afterId, int limit) {
+        List<Map<String,Object>> out = new ArrayList<>();
+        Conv c = convs.get(MessageStore.conversation(username, target, isRoom));
+        if (c != null) c.page(beforeId, afterId, limit, out);
+        return out;
+    }
+
+    @Override
+    public List<Map<String,Object>> fetchByIds(String username, String target, boolean isRoom, long[] ids) {
+        List<Map<String,Object>> out = new ArrayList<>();
+        Conv c = convs.get(MessageStore.conversation(username, target, isRoom));
+        if (c == null) return out;
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        c.byIds(sorted, out);
+        return out;
+    }
+
+    /** One task per conversation; there is no global order to go newest first by. */
+    @Override
+    public void scan(int parallelism, int chunkSize, Predicate<List<Message>> sink) {
+        List<Conv> all = new ArrayList<>(convs.values());
+        MessageStore.runParallel("message-scan", parallelism, all.size(), i -> {
+            List<Message> msgs = all.get(i).snapshot();
+            for (int from = 0; from < msgs.size(); from += chunkSize) {
+                if (!sink.test(msgs.subList(from, Math.min(msgs.size(), from + chunkSize)))) return false;
+            }
+            return true;
+        });
+    }
+}
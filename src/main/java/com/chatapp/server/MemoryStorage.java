@@ -0,0 +1,147 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * MemoryStorage keeps users, invites, rooms, memberships and sessions in concurrent maps,
+ * with messages in the given MessageStore. Users and rooms get int ids like the database
+ * rows, and a membership is the pair packed into one long. Nothing survives a restart.
+ */
+public class MemoryStorage implements Storage {
+    private record User(int id, String passwordHash) {}
+
+    private final MessageStore messages;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Map<String, Integer> rooms = new ConcurrentHashMap<>();
+    private final Set<Long> memberships = ConcurrentHashMap.newKeySet();
+    private final Map<String, Boolean> invites = new ConcurrentHashMap<>(); // token -> used
+    private final Map<String, StoredSession> sessions = new ConcurrentHashMap<>();
+
+    public MemoryStorage(MessageStore messages) {
+        this.messages = messages;
+    }
+
+    // ========== Users ==========
+    @Override
+    public boolean createUser(String username, String passwordHash) {
+        return users.putIfAbsent(username, new User(nextId.incrementAndGet(), passwordHash)) == null;
+    }
+
+    @Override
+    public String fetchStoredPassword(String username) {
+        User u = users.get(username);
+        return u == null ? null : u.passwordHash();
+    }
+
+    // ========== Invites ==========
+    @Override
+    public void createInvite(String token) {
+        invites.putIfAbsent(token, false);
+    }
+
+    @Override
+    public boolean inviteAvailable(String token) {
+        return Boolean.FALSE.equals(invites.get(token));
+    }
+
+    @Override
+    public boolean useInvite(String token) {
+        return invites.replace(token, false, true);
+    }
+
+    // ========== Rooms & memberships ==========
+    @Override
+    public void ensureRoom(String name) {
+        rooms.computeIfAbsent(name, k -> nextId.incrementAndGet());
+    }
+
+    @Override
+    public boolean isRoom(String name) {
+        return rooms.containsKey(name);
+    }
+
+    @Override
+    public void addMembership(String username, String room) {
+        User u = users.get(username);
+        Integer r = rooms.get(room);
+        if (u != null && r != null) memberships.add(membership(u.id(), r));
+    }
+
+    @Override
+    public void removeMembership(String username, String room) {
+        User u = users.get(username);
+        Integer r = rooms.get(room);
+        if (u != null && r != null) memberships.remove(membership(u.id(), r));
+    }
+
+    @Override
+    public List<String> fetchMemberships(String username) {
+        List<String> out = new ArrayList<>();
+        User u = users.get(username);
+        if (u == null) return out;
+        rooms.forEach((name, id) -> {
+            if (memberships.contains(membership(u.id(), id))) out.add(name);
+        });
+        return out;
+    }
+
+    private static long membership(int userId, int roomId) {
+        return (long) userId << 32 | (roomId & 0xffffffffL);
+    }
+
+    // ========== Messages ==========
+    @Override
+    public boolean saveMessages(List<Message> msgs) {
+        return messages.save(msgs);
+    }
+
+    @Override
+    public List<Map<String,Object>> fetchHistory(String username, String target, boolean isRoom, Long beforeId, Long afterId, int limit) {
+        return messages.fetchHistory(username, target, isRoom, beforeId, afterId, limit);
+    }
+
+    @Override
+    public List<Map<String,Object>> fetchMessages(String username, String target, boolean isRoom, long[] ids) {
+        return messages.fetchByIds(username, target, isRoom, ids);
+    }
+
+    @Override
+    public void scanMessages(int parallelism, int chunkSize, Predicate<List<Message>> sink) {
+        messages.scan(parallelism, chunkSize, sink);
+    }
+
+    // ========== Sessions ==========
+    @Override
+    public void saveSession(String tokenHash, String username, long expiresAt) {
+        sessions.put(tokenHash, new StoredSession(username, expiresAt));
+    }
+
+    @Override
+    public StoredSession fetchSession(String tokenHash) {
+        return sessions.get(tokenHash);
+    }
+
+    @Override
+    public void deleteSession(String tokenHash) {
+        sessions.remove(tokenHash);
+    }
+
+    @Override
+    public void deleteExpiredSessions(long now) {
+        sessions.values().removeIf(s -> s.expiresAt() <= now);
+    }
+
+    @Override
+    public void close() {
+        messages.close();
+    }
+}
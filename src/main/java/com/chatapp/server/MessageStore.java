@@ -0,0 +1,77 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * MessageStore is where chat messages are persisted and paged back from.
+ * A Storage routes saveMessages/fetchHistory to its store: the messages table over JDBC
+ * (JdbcMessageStore), the heap (MemoryMessageStore), or an append-only log on local disk
+ * when Config.MESSAGE_STORE is "log" (LogMessageStore).
+ * Rows are maps with id, sender, receiver, text and ts, as the history response expects.
+ */
+public interface MessageStore extends AutoCloseable {
+
+    /** Persists all messages; false if none were stored. */
+    boolean save(List<Message> msgs);
+
+    /**
+     * Keyset page of one conversation. With afterId the page holds the oldest messages newer
+     * than it, oldest first; otherwise the newest older than beforeId (or overall), newest first.
+     */
+    List<Map<String,Object>> fetchHistory(String username, String target, boolean isRoom, Long beforeId, Long afterId, int limit);
+
+    /** The rows with these ids in one conversation, newest first; ids the store does not hold are skipped. */
+    List<Map<String,Object>> fetchByIds(String username, String target, boolean isRoom, long[] ids);
+
+    /**
+     * Hands every stored message to sink in chunks of up to chunkSize, newest chunks first where
+     * the store can tell, from up to parallelism threads at once; once sink returns false no
+     * further chunks are read. Meant for rebuilding in-memory indexes at startup.
+     */
+    void scan(int parallelism, int chunkSize, Predicate<List<Message>> sink);
+
+    @Override
+    default void close() {}
+
+    /**
+     * Runs task(0) .. task(tasks - 1) on up to parallelism threads, lower indexes started first,
+     * and returns when they are done. A task returning false keeps the rest from starting.
+     */
+    static void runParallel(String name, int parallelism, int tasks, IntPredicate task) {
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+        Runnable worker = () -> {
+            int i;
+            while (!stop.get() && (i = next.getAndIncrement()) < tasks) {
+                if (!task.test(i)) stop.set(true);
+            }
+        };
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < Math.min(Math.max(1, parallelism), tasks); t++) {
+            Thread th = new Thread(worker, name + "-" + t);
+            th.setDaemon(true);
+            th.start();
+            threads.add(th);
+        }
+        try {
+            for (Thread th : threads) th.join();
+        } catch (InterruptedException e) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Identifies a conversation: the room, or the PM pair in either direction. */
+    static String conversation(String username, String target, boolean isRoom) {
+        if (isRoom) return "r:" + target;
+        return username.compareTo(target) <= 0 ? "p:" + username + '\0' + target : "p:" + target + '\0' + username;
+    }
+}
@@ -0,0 +1,217 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * MessageWriter persists chat messages in the background (write-behind).
+ * Handlers append to a bounded queue; one writer thread hands them to Storage as one batch
+ * (one transaction, or one log append) once batchSize messages are waiting or flushMillis has passed
+ * since the first one arrived. A full queue blocks the sender, which is the backpressure: senders wait
+ * for a free slot before taking a message id, so waiting never holds up the id order for others.
+ * A committed batch is passed to the onSaved hook (the search index) before its futures complete.
+ */
+public class MessageWriter implements Runnable {
+    private record Pending(Message message, CompletableFuture<Boolean> done) {}
+
+    /** A message queued by submit(ids, build), with the future of its batch. */
+    public record Queued(Message message, CompletableFuture<Boolean> saved) {}
+
+    private final Storage storage;
+    private final Consumer<List<Message>> onSaved;
+    private final BlockingQueue<Pending> queue;
+    private final Semaphore slots;  // free queue capacity; taken before enqueueing, returned as the writer takes
+    private final int batchSize;
+    private final long flushNanos;
+    private final ReentrantLock order = new ReentrantLock();
+    private final Map<String, Integer> unflushed = new ConcurrentHashMap<>(); // conversation -> messages not yet written
+    private Thread thread; // set by start()
+    private volatile boolean running = true;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong flushNanosTotal = new AtomicLong();
+    private final AtomicLong flushNanosMax = new AtomicLong();
+
+    public MessageWriter(Storage storage, int capacity, int batchSize, long flushMillis) {
+        this(storage, capacity, batchSize, flushMillis, msgs -> {});
+    }
+
+    public MessageWriter(Storage storage, int capacity, int batchSize, long flushMillis, Consumer<List<Message>> onSaved) {
+        this.storage = storage;
+        this.onSaved = onSaved;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.slots = new Semaphore(capacity);
+        this.batchSize = batchSize;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+    }
+
+    /** Starts the writer thread; until then submitted messages only queue up. */
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(this, "message-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a message for persistence. The future completes with true once the
+     * batch containing it is committed, or false if the batch failed.
+     */
+    public CompletableFuture<Boolean> submit(Message m) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done.complete(false);
+            return done;
+        }
+        enqueue(new Pending(m, done));
+        return done;
+    }
+
+    /**
+     * Takes the next id and queues the message built around it in one step, so messages reach
+     * storage in id order and each conversation is stored oldest first.
+     */
+    public Queued submit(LongSupplier ids, LongFunction<Message> build) {
+        slots.acquireUninterruptibly();
+        order.lock();
+        try {
+            Message m = build.apply(ids.getAsLong());
+            CompletableFuture<Boolean> done = new CompletableFuture<>();
+            enqueue(new Pending(m, done));
+            return new Queued(m, done);
+        } finally {
+            order.unlock();
+        }
+    }
+
+    /** Adds to the queue, whose slot the caller has reserved, and counts the message against its conversation. */
+    private void enqueue(Pending p) {
+        unflushed.merge(conversation(p.message()), 1, Integer::sum);
+        queue.add(p);
+    }
+
+    private static String conversation(Message m) {
+        return conversation(m.isRoom(), m.getSender(), m.getReceiver());
+    }
+
+    private static String conversation(boolean room, String user, String target) {
+        if (room) return "#" + target;
+        return user.compareTo(target) <= 0 ? user + "\0" + target : target + "\0" + user;
+    }
+
+    /**
+     * True while a message of this room or PM pair is queued or being written, i.e. the
+     * database may not have it yet.
+     */
+    public boolean hasUnflushed(boolean room, String user, String target) {
+        return unflushed.containsKey(conversation(room, user, target));
+    }
+
+    @Override
+    public void run() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                slots.release();
+                batch.add(first);
+                long deadline = System.nanoTime() + flushNanos;
+                while (batch.size() < batchSize) {
+                    slots.release(queue.drainTo(batch, batchSize - batch.size()));
+                    if (batch.size() >= batchSize) break;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    Pending p = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (p == null) break;
+                    slots.release();
+                    batch.add(p);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        List<Message> msgs = new ArrayList<>(batch.size());
+        for (Pending p : batch) msgs.add(p.message());
+        long t0 = System.nanoTime();
+        boolean ok;
+        try {
+            ok = storage.saveMessages(msgs);
+        } catch (RuntimeException e) {
+            ok = false;
+        }
+        long took = System.nanoTime() - t0;
+        batches.incrementAndGet();
+        flushNanosTotal.addAndGet(took);
+        flushNanosMax.accumulateAndGet(took, Math::max);
+        if (ok) {
+            written.addAndGet(msgs.size());
+            try {
+                onSaved.accept(msgs);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        } else {
+            failed.addAndGet(msgs.size());
+        }
+        for (Pending p : batch) {
+            unflushed.computeIfPresent(conversation(p.message()), (k, n) -> n == 1 ? null : n - 1);
+            p.done().complete(ok);
+        }
+    }
+
+    /** Stops accepting work and waits for the queue to be flushed. */
+    public void close() {
+        running = false;
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t == null) return;
+        try {
+            t.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ========== Counters ==========
+    public int getQueueDepth() { return queue.size(); }
+    public long getBatches() { return batches.get(); }
+    public long getWritten() { return written.get(); }
+    public long getFailed() { return failed.get(); }
+    public double getAvgBatchSize() {
+        long b = batches.get();
+        return b == 0 ? 0 : (double) (written.get() + failed.get()) / b;
+    }
+    public double getAvgFlushMillis() {
+        long b = batches.get();
+        return b == 0 ? 0 : flushNanosTotal.get() / 1e6 / b;
+    }
+    public double getMaxFlushMillis() { return flushNanosMax.get() / 1e6; }
+}
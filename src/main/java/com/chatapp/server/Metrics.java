@@ -0,0 +1,80 @@
+package com.chatapp.server;
+
+import com.chatapp.util.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metrics is the process-wide registry of counters, gauges and latency histograms.
+ * Hot paths look their metric up once (a static final or a field) and then only touch a
+ * LongAdder or Histogram; gauges are suppliers over counters the components already keep
+ * and are read only when the stats are rendered.
+ * A name may carry labels, e.g. {@code chat_db_latency_ns{op="createUser"}}.
+ */
+public final class Metrics {
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+    private static final Map<String, DoubleSupplier> GAUGES = new ConcurrentSkipListMap<>();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private Metrics() {}
+
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /** Registers (or replaces) a gauge that is evaluated at render time. */
+    public static void gauge(String name, DoubleSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /** Prometheus text format, one sample per line. */
+    public static String render() {
+        StringBuilder sb = new StringBuilder(4096);
+        COUNTERS.forEach((name, c) -> line(sb, name, c.sum()));
+        GAUGES.forEach((name, g) -> {
+            double v;
+            try {
+                v = g.getAsDouble();
+            } catch (RuntimeException e) {
+                return; // component not initialised, e.g. no DB pool yet
+            }
+            line(sb, name, v);
+        });
+        HISTOGRAMS.forEach((name, h) -> {
+            long count = h.getCount();
+            if (count == 0) return;
+            for (double q : QUANTILES) line(sb, withLabel(name, "quantile=\"" + q + "\""), h.percentile(q));
+            line(sb, suffixed(name, "_max"), h.getMax());
+            line(sb, suffixed(name, "_sum"), h.getSum());
+            line(sb, suffixed(name, "_count"), count);
+        });
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, double v) {
+        sb.append(name).append(' ');
+        if (v == Math.rint(v) && !Double.isInfinite(v)) sb.append((long) v);
+        else sb.append(v);
+        sb.append('\n');
+    }
+
+    private static String withLabel(String name, String label) {
+        int brace = name.indexOf('{');
+        if (brace < 0) return name + "{" + label + "}";
+        return name.substring(0, name.length() - 1) + "," + label + "}";
+    }
+
+    private static String suffixed(String name, String suffix) {
+        int brace = name.indexOf('{');
+        if (brace < 0) return name + suffix;
+        return name.substring(0, brace) + suffix + name.substring(brace);
+    }
+}
@@ -0,0 +1,274 @@
+package com.chatapp.server;
+
+import com.chatapp.protocol.BinaryCodec;
+import com.chatapp.util.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NioConnection is one non-blocking client socket.
+ * The event loop splits incoming bytes into lines (or, after a binary hello, length-prefixed
+ * frames) and queues them; a worker drains the queue so commands of one client run in order
+ * but never on the I/O thread. Outbound
+ * frames are queued by any thread and written by the loop when the socket is writable.
+ */
+public class NioConnection implements Transport {
+    private static final int MAX_LINE_BYTES = BinaryCodec.MAX_FRAME_BYTES;
+    private static final int MAX_PENDING_LINES = 10_000;
+    private static final int IDLE_LINE_BUFFER = 4096;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final ExecutorService workers;
+    private ClientHandler handler;
+    private SelectionKey key;
+
+    // loop thread only
+    private byte[] lineBuf;
+    private int lineLen;
+    private boolean firstLine = true;
+    private boolean binary;    // switched by a binary hello on the first line
+    private int frameLen = -1; // body length being read, -1 while reading the varint prefix
+    private int lenShift;
+    private int lenAcc;
+    private byte[] frameBuf;
+    private int frameFill;
+    private byte[] carry;      // polled frame that did not fit in the write buffer
+    private ByteBuffer tail;   // bytes accepted from the queue but not yet taken by the socket
+
+    private final Queue<Object> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingLines = new AtomicInteger();
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+    private final OutboundQueue outbound = new OutboundQueue(Config.OUTBOUND_QUEUE_CAPACITY, OutboundQueue.parsePolicy(Config.SLOW_CONSUMER_POLICY),
+            f -> handler.encode(f));
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean closing = false;
+
+    public NioConnection(SocketChannel channel, NioEventLoop loop, ExecutorService workers) {
+        this.channel = channel;
+        this.loop = loop;
+        this.workers = workers;
+    }
+
+    void attach(ClientHandler handler) { this.handler = handler; }
+
+    SocketChannel channel() { return channel; }
+
+    void setKey(SelectionKey key) { this.key = key; }
+
+    void onRegistered() {
+        handler.start();
+    }
+
+    // ========== Read side (loop thread) ==========
+    void onReadable(ByteBuffer buf) {
+        buf.clear();
+        int n;
+        try {
+            n = channel.read(buf);
+        } catch (IOException e) {
+            close(); return;
+        }
+        if (n < 0) { close(); return; }
+        buf.flip();
+        while (buf.hasRemaining()) {
+            if (binary) {
+                if (!readFrames(buf)) close();
+                return;
+            }
+            byte b = buf.get();
+            if (b == '\n') {
+                emitLine();
+            } else {
+                if (lineBuf == null) lineBuf = new byte[256];
+                else if (lineLen == lineBuf.length) {
+                    if (lineLen >= MAX_LINE_BYTES) { close(); return; }
+                    lineBuf = Arrays.copyOf(lineBuf, lineLen * 2);
+                }
+                lineBuf[lineLen++] = b;
+            }
+        }
+    }
+
+    private void emitLine() {
+        int len = lineLen;
+        if (len > 0 && lineBuf[len - 1] == '\r') len--;
+        String line = len == 0 ? "" : new String(lineBuf, 0, len, StandardCharsets.UTF_8);
+        lineLen = 0;
+        if (lineBuf != null && lineBuf.length > IDLE_LINE_BUFFER) lineBuf = null;
+        if (firstLine) {
+            firstLine = false;
+            binary = BinaryCodec.requestsBinary(line);
+            if (binary) lineBuf = null;
+        }
+        enqueue(line);
+    }
+
+    /** Consumes frame bytes; false if the peer sent a frame that is too large. */
+    private boolean readFrames(ByteBuffer buf) {
+        while (buf.hasRemaining()) {
+            if (frameLen < 0) {
+                int b = buf.get() & 0xFF;
+                lenAcc |= (b & 0x7F) << lenShift;
+                lenShift += 7;
+                if ((b & 0x80) != 0) {
+                    if (lenShift >= 21) return false;
+                    continue;
+                }
+                if (lenAcc > BinaryCodec.MAX_FRAME_BYTES) return false;
+                frameLen = lenAcc;
+                frameBuf = new byte[frameLen];
+                frameFill = 0;
+                lenAcc = lenShift = 0;
+            }
+            int n = Math.min(buf.remaining(), frameLen - frameFill);
+            buf.get(frameBuf, frameFill, n);
+            frameFill += n;
+            if (frameFill == frameLen) {
+                byte[] body = frameBuf;
+                frameBuf = null;
+                frameLen = -1;
+                enqueue(body);
+                if (closed.get()) return true;
+            }
+        }
+        return true;
+    }
+
+    /** Queues a line or frame body for the worker. */
+    private void enqueue(Object item) {
+        if (pendingLines.incrementAndGet() > MAX_PENDING_LINES) { close(); return; }
+        inbound.add(item);
+        dispatch();
+    }
+
+    private void dispatch() {
+        if (dispatching.compareAndSet(false, true)) {
+            workers.execute(this::drainInbound);
+        }
+    }
+
+    private void drainInbound() {
+        Object item;
+        try {
+            while (!closed.get()) {
+                if (!handler.isAlive()) {
+                    inbound.clear();
+                    closeAfterFlush();
+                    break;
+                }
+                if ((item = inbound.poll()) == null) break;
+                pendingLines.decrementAndGet();
+                CompletableFuture<Void> pending;
+                try {
+                    pending = item instanceof String line ? handler.handleLine(line) : handler.handleFrame((byte[]) item);
+                } catch (RuntimeException e) {
+                    handler.commandFailed(e);
+                    continue;
+                }
+                if (pending != null && !pending.isDone()) {
+                    // keep the dispatching flag: this client's next command waits for the async one
+                    pending.whenComplete((r, e) -> workers.execute(this::drainInbound));
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            close();
+        }
+        dispatching.set(false);
+        if (!inbound.isEmpty() && !closing && !closed.get()) dispatch();
+    }
+
+    // ========== Write side ==========
+    @Override
+    public void send(byte[] frame) throws IOException {
+        if (closed.get()) throw new IOException("connection closed");
+        if (!outbound.offer(frame)) {
+            close();
+            throw new IOException("slow consumer disconnected");
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.requestFlush(this);
+        }
+    }
+
+    /**
+     * Copies as many queued frames as fit into the loop's buffer and writes them in one call.
+     * Whatever the socket does not accept is kept in a per-connection tail until it is writable again.
+     * Loop thread only.
+     */
+    void flush(ByteBuffer buf) {
+        if (closed.get() || key == null) return;
+        try {
+            while (true) {
+                if (tail != null) {
+                    channel.write(tail);
+                    if (tail.hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    tail = null;
+                }
+                if (carry != null && carry.length > buf.capacity()) {
+                    tail = ByteBuffer.wrap(carry);
+                    carry = null;
+                    continue;
+                }
+                buf.clear();
+                if (carry != null) {
+                    buf.put(carry);
+                    carry = null;
+                }
+                byte[] f;
+                while ((f = outbound.poll()) != null) {
+                    if (f.length > buf.remaining()) { carry = f; break; }
+                    buf.put(f);
+                }
+                buf.flip();
+                if (!buf.hasRemaining() && carry == null) break; // an empty buffer with a carry: that frame goes out as a tail
+                channel.write(buf);
+                if (buf.hasRemaining()) {
+                    tail = ByteBuffer.allocate(buf.remaining()).put(buf).flip();
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            flushScheduled.set(false);
+            if (!outbound.isEmpty()) scheduleFlush();
+            else if (closing) close();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void closeAfterFlush() {
+        closing = true;
+        scheduleFlush();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (key != null) key.cancel();
+        try { channel.close(); } catch (IOException ignore) {}
+        outbound.clear();
+        inbound.clear();
+        handler.cleanup();
+    }
+}
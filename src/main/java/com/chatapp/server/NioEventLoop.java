@@ -0,0 +1,86 @@
+package com.chatapp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * NioEventLoop owns one Selector and does all socket reads and writes for the
+ * connections registered with it. Read and write buffers are per loop, not per
+ * connection, so an idle connection costs only its key and a few small objects.
+ */
+public class NioEventLoop implements Runnable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int index;
+    private final Selector selector;
+    private final Queue<NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    public NioEventLoop(int index) throws IOException {
+        this.index = index;
+        this.selector = Selector.open();
+    }
+
+    public int getIndex() { return index; }
+
+    /** Hands a freshly accepted connection to this loop. Safe to call from any thread. */
+    public void register(NioConnection conn) {
+        pendingRegistrations.add(conn);
+        selector.wakeup();
+    }
+
+    /** Asks the loop to flush a connection's outbound queue. Safe to call from any thread. */
+    void requestFlush(NioConnection conn) {
+        pendingWrites.add(conn);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+                processRegistrations();
+                processWrites();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection conn = (NioConnection) key.attachment();
+                    if (!key.isValid()) { conn.close(); continue; }
+                    if (key.isReadable()) conn.onReadable(readBuffer);
+                    if (key.isValid() && key.isWritable()) conn.flush(writeBuffer);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void processRegistrations() {
+        NioConnection conn;
+        while ((conn = pendingRegistrations.poll()) != null) {
+            try {
+                conn.setKey(conn.channel().register(selector, SelectionKey.OP_READ, conn));
+                conn.onRegistered();
+            } catch (ClosedChannelException e) {
+                conn.close();
+            }
+        }
+    }
+
+    private void processWrites() {
+        NioConnection conn;
+        while ((conn = pendingWrites.poll()) != null) {
+            conn.flush(writeBuffer);
+        }
+    }
+}
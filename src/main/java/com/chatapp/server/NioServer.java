@@ -0,0 +1,53 @@
+package com.chatapp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * NioServer accepts connections on a ServerSocketChannel and spreads them round-robin
+ * over a small set of selector loops. Commands are executed on a separate worker pool
+ * so a slow DB call never stalls the I/O of other connections on the same loop.
+ */
+public class NioServer {
+    private final ChatServer server;
+    private final ServerSocketChannel acceptor;
+    private final NioEventLoop[] loops;
+    private final ExecutorService workers;
+
+    public NioServer(ChatServer server, int port, int ioThreads, ExecutorService workers) throws IOException {
+        this.server = server;
+        this.acceptor = ServerSocketChannel.open();
+        this.acceptor.bind(new InetSocketAddress(port), 1024);
+        this.workers = workers;
+        this.loops = new NioEventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new NioEventLoop(i);
+        }
+    }
+
+    public void serve() {
+        for (NioEventLoop loop : loops) {
+            Thread t = new Thread(loop, "nio-loop-" + loop.getIndex());
+            t.setDaemon(true);
+            t.start();
+        }
+        int next = 0;
+        while (true) {
+            try {
+                SocketChannel ch = acceptor.accept();
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                NioEventLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+                NioConnection conn = new NioConnection(ch, loop, workers);
+                conn.attach(new ClientHandler(server, conn));
+                loop.register(conn);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
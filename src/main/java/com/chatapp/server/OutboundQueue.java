@@ -0,0 +1,111 @@
+package com.chatapp.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * OutboundQueue holds the encoded frames waiting to be written to one client.
+ * Any thread may offer; a single writer (the connection's writer task or event loop) polls.
+ * The queue is bounded and applies a slow-consumer policy when a client stops reading:
+ * <ul>
+ *   <li>DROP_OLDEST - discard the oldest queued frame to make room</li>
+ *   <li>DISCONNECT - refuse the frame; the caller closes the connection</li>
+ *   <li>MARK_LAGGING - drop new frames until the backlog halves, then tell the client how many it missed</li>
+ * </ul>
+ * The queue's own notices are encoded with the connection's encoder, so they follow a switch to binary.
+ */
+public class OutboundQueue {
+    public enum Policy { DROP_OLDEST, DISCONNECT, MARK_LAGGING }
+
+    private static final LongAdder DROPPED_TOTAL = Metrics.counter("chat_outbound_dropped_frames_total");
+
+    private final Queue<byte[]> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final int capacity;
+    private final Policy policy;
+    private final Function<Frame, byte[]> encoder;
+    private volatile boolean lagging = false;
+    private long droppedWhileLagging = 0; // guarded by this when lagging
+
+    public OutboundQueue(int capacity, Policy policy, Function<Frame, byte[]> encoder) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.encoder = encoder;
+    }
+
+    private void drop() {
+        dropped.incrementAndGet();
+        DROPPED_TOTAL.increment();
+    }
+
+    public static Policy parsePolicy(String name) {
+        return Policy.valueOf(name.trim().toUpperCase());
+    }
+
+    /** Queues a frame. Returns false only under DISCONNECT when the queue is full. */
+    public boolean offer(byte[] frame) {
+        if (lagging && !tryRecover()) {
+            drop();
+            return true;
+        }
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            switch (policy) {
+                case DISCONNECT -> { drop(); return false; }
+                case DROP_OLDEST -> {
+                    if (poll() != null) drop();
+                    size.incrementAndGet();
+                }
+                case MARK_LAGGING -> {
+                    synchronized (this) {
+                        lagging = true;
+                        droppedWhileLagging++;
+                    }
+                    drop();
+                    return true;
+                }
+            }
+        }
+        frames.add(frame);
+        return true;
+    }
+
+    private boolean tryRecover() {
+        synchronized (this) {
+            if (!lagging) return true;
+            if (size.get() > capacity / 2) {
+                droppedWhileLagging++;
+                return false;
+            }
+            lagging = false;
+            size.incrementAndGet();
+            frames.add(lagNotice(droppedWhileLagging));
+            droppedWhileLagging = 0;
+            return true;
+        }
+    }
+
+    private byte[] lagNotice(long n) {
+        return encoder.apply(Frames.serverMsg("[server] " + n + " messages were dropped because your connection is too slow"));
+    }
+
+    public byte[] poll() {
+        byte[] f = frames.poll();
+        if (f != null) size.decrementAndGet();
+        return f;
+    }
+
+    public boolean isEmpty() { return frames.isEmpty(); }
+    public int size() { return size.get(); }
+    public long getDropped() { return dropped.get(); }
+    public boolean isLagging() { return lagging; }
+
+    public void clear() {
+        while (poll() != null) { }
+    }
+}
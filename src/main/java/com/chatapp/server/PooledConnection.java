@@ -0,0 +1,95 @@
+package com.chatapp.server;
+
+import com.chatapp.util.Histogram;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PooledConnection is a Connection borrowed from a ConnectionPool; close() gives it back.
+ * It caches one PreparedStatement per SQL string, so the fixed statements in JdbcStorage
+ * are prepared once per connection. Statements from prepare() belong to the connection
+ * and must not be closed by the caller.
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection conn;
+    private final int queryTimeoutSeconds;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private boolean broken = false;
+    private long lastReleased = System.currentTimeMillis();
+    private Histogram timer;
+    private long timerStart;
+
+    PooledConnection(ConnectionPool pool, Connection conn, int queryTimeoutSeconds) {
+        this.pool = pool;
+        this.conn = conn;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+    }
+
+    public Connection raw() { return conn; }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement p = statements.get(sql);
+        if (p == null || p.isClosed()) {
+            p = conn.prepareStatement(sql);
+            if (queryTimeoutSeconds > 0) p.setQueryTimeout(queryTimeoutSeconds);
+            statements.put(sql, p);
+        } else {
+            p.clearParameters();
+        }
+        return p;
+    }
+
+    /** Like prepare, but the statement returns generated keys. Use a distinct SQL string for each form. */
+    public PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+        PreparedStatement p = statements.get(sql);
+        if (p == null || p.isClosed()) {
+            p = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            if (queryTimeoutSeconds > 0) p.setQueryTimeout(queryTimeoutSeconds);
+            statements.put(sql, p);
+        } else {
+            p.clearParameters();
+        }
+        return p;
+    }
+
+    boolean isBroken() { return broken; }
+
+    long getLastReleased() { return lastReleased; }
+
+    void startTimer(Histogram timer, long startNanos) {
+        this.timer = timer;
+        this.timerStart = startNanos;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            broken = true;
+        }
+        if (timer != null) {
+            timer.record(System.nanoTime() - timerStart);
+            timer = null;
+        }
+        lastReleased = System.currentTimeMillis();
+        pool.release(this);
+    }
+
+    void closeQuietly() {
+        for (PreparedStatement p : statements.values()) {
+            try { p.close(); } catch (SQLException ignore) {}
+        }
+        statements.clear();
+        try { conn.close(); } catch (SQLException ignore) {}
+    }
+}
@@ -0,0 +1,156 @@
+package com.chatapp.server;
+
+import com.chatapp.protocol.Command;
+import com.chatapp.util.HashedWheelTimer;
+import com.chatapp.util.TokenBucket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RateLimits holds the token-bucket limits on client commands, parsed once from Config:
+ * per command kind for each user, and for messages into each room.
+ * A client draws from its own Buckets until it logs in and from its user's shared Buckets
+ * after, so several connections of one user share one budget. A user's Buckets count the
+ * connections using them and outlive the last one until every bucket has refilled, so
+ * reconnecting does not reset the budget. The hot path is a ClassValue lookup and one
+ * TokenBucket.tryAcquire; refused commands are counted per kind.
+ */
+public class RateLimits {
+    private record Limit(double perSecond, int burst) {
+        TokenBucket bucket() { return new TokenBucket(perSecond, burst); }
+    }
+
+    // never limited: the handshake, heartbeats and leaving
+    private static final Set<Class<?>> EXEMPT = Set.of(Command.Hello.class, Command.Pong.class, Command.Quit.class);
+
+    private final List<String> kinds = new ArrayList<>();  // index 0 is "*", every other command
+    private final List<Limit> limits = new ArrayList<>();  // null = unlimited
+    private final LongAdder[] throttled;
+    private final ClassValue<Integer> kindOf = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            if (EXEMPT.contains(type)) return -1;
+            return Math.max(0, kinds.indexOf(type.getSimpleName().toLowerCase()));
+        }
+    };
+    private final Limit roomMsg;
+    private final LongAdder roomThrottled = Metrics.counter("chat_throttled_total{scope=\"room\",cmd=\"msg\"}");
+    private final Map<String, Buckets> users = new ConcurrentHashMap<>();
+    private final HashedWheelTimer timer;
+
+    /**
+     * userSpec is "cmd=perSecond/burst" pairs separated by commas, with "*" for every command not
+     * named; roomMsgSpec is one "perSecond/burst". A rate of 0 means unlimited.
+     */
+    public RateLimits(String userSpec, String roomMsgSpec, HashedWheelTimer timer) {
+        this.timer = timer;
+        kinds.add("*");
+        limits.add(null);
+        for (String part : userSpec.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+            int eq = part.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected cmd=perSecond/burst: " + part);
+            String kind = part.substring(0, eq).trim().toLowerCase();
+            Limit limit = parse(part.substring(eq + 1));
+            if (kind.equals("*")) {
+                limits.set(0, limit);
+            } else {
+                kinds.add(kind);
+                limits.add(limit);
+            }
+        }
+        throttled = new LongAdder[kinds.size()];
+        for (int i = 0; i < throttled.length; i++) {
+            throttled[i] = Metrics.counter("chat_throttled_total{scope=\"user\",cmd=\"" + kinds.get(i) + "\"}");
+        }
+        roomMsg = parse(roomMsgSpec);
+    }
+
+    private static Limit parse(String spec) {
+        String[] p = spec.trim().split("/");
+        double rate = Double.parseDouble(p[0].trim());
+        int burst = p.length > 1 ? Integer.parseInt(p[1].trim()) : (int) Math.max(1, Math.ceil(rate));
+        return rate > 0 ? new Limit(rate, burst) : null;
+    }
+
+    /** One bucket per limited command kind. */
+    public final class Buckets {
+        private final TokenBucket[] buckets = new TokenBucket[limits.size()];
+        private int connections; // guarded by the users map's lock for this user
+
+        private Buckets() {
+            for (int i = 0; i < buckets.length; i++) {
+                Limit l = limits.get(i);
+                if (l != null) buckets[i] = l.bucket();
+            }
+        }
+
+        /** False if the command is over its limit; the refusal is counted. */
+        public boolean tryAcquire(Command c) {
+            int k = kindOf.get(c.getClass());
+            if (k < 0) return true;
+            TokenBucket b = buckets[k];
+            if (b == null || b.tryAcquire()) return true;
+            throttled[k].increment();
+            return false;
+        }
+
+        private long nanosUntilFull() {
+            long max = 0;
+            for (TokenBucket b : buckets) {
+                if (b != null) max = Math.max(max, b.nanosUntilFull());
+            }
+            return max;
+        }
+    }
+
+    /** Buckets for a connection that has not logged in yet. */
+    public Buckets anonymous() {
+        return new Buckets();
+    }
+
+    /** The user's shared Buckets, claimed for one connection until release. */
+    public Buckets forUser(String username) {
+        return users.compute(username, (k, b) -> {
+            if (b == null) b = new Buckets();
+            b.connections++;
+            return b;
+        });
+    }
+
+    /** Drops one connection's claim; with none left the Buckets are forgotten once full. */
+    public void release(String username) {
+        users.computeIfPresent(username, (k, b) -> --b.connections > 0 ? b : expireWhenFull(k, b));
+    }
+
+    /** Under the map's lock: null if b is full, else b, checked again when it will be. */
+    private Buckets expireWhenFull(String username, Buckets b) {
+        long wait = b.nanosUntilFull();
+        if (wait == 0) return null;
+        try {
+            timer.schedule(() -> users.computeIfPresent(username,
+                    (k, cur) -> cur == b && cur.connections == 0 ? expireWhenFull(k, cur) : cur), wait, TimeUnit.NANOSECONDS);
+        } catch (IllegalStateException e) {
+            // timer stopped: shutting down
+        }
+        return b;
+    }
+
+    int getTrackedUsers() { return users.size(); }
+
+    /** A fresh message limiter for a room, or null if rooms are unlimited. */
+    public TokenBucket newRoomBucket() {
+        return roomMsg != null ? roomMsg.bucket() : null;
+    }
+
+    public void roomThrottled() {
+        roomThrottled.increment();
+    }
+}
@@ -0,0 +1,59 @@
+package com.chatapp.server;
+
+import com.chatapp.util.Config;
+import com.chatapp.util.TokenBucket;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RoomMembers is the set of this node's clients in one room.
+ * Join and leave are O(1) hash operations with no copying, and iteration walks the live
+ * table without taking a snapshot (weakly consistent: a member joining or leaving during a
+ * broadcast may or may not get that frame). Broadcasts to large rooms are split across the
+ * common ForkJoin pool by ConcurrentHashMap's own bulk traversal.
+ * A room may carry a limit on messages per second from all its senders (see RateLimits).
+ */
+public class RoomMembers implements Iterable<ClientHandler> {
+    private final ConcurrentHashMap<ClientHandler, Boolean> members = new ConcurrentHashMap<>();
+    private final TokenBucket sendLimit; // null = unlimited
+
+    public RoomMembers() {
+        this(null);
+    }
+
+    public RoomMembers(TokenBucket sendLimit) {
+        this.sendLimit = sendLimit;
+    }
+
+    /** Takes one message token for the room; false if the room is over its rate. */
+    public boolean tryAcquireSend() {
+        return sendLimit == null || sendLimit.tryAcquire();
+    }
+
+    /** True if the handler was not already a member. */
+    public boolean add(ClientHandler h) {
+        return members.putIfAbsent(h, Boolean.TRUE) == null;
+    }
+
+    /** True if the handler was a member. */
+    public boolean remove(ClientHandler h) {
+        return members.remove(h) != null;
+    }
+
+    public boolean contains(ClientHandler h) { return members.containsKey(h); }
+    public int size() { return members.size(); }
+    public boolean isEmpty() { return members.isEmpty(); }
+
+    @Override
+    public Iterator<ClientHandler> iterator() {
+        return members.keySet().iterator();
+    }
+
+    /** Queues the same frame to every member except one; rooms above the threshold are traversed in parallel. */
+    public void broadcast(ClientHandler except, Frame frame) {
+        members.forEachKey(Config.ROOM_PARALLEL_BROADCAST_THRESHOLD, ch -> {
+            if (ch != except) ch.sendFrame(frame);
+        });
+    }
+}
@@ -0,0 +1,335 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SearchIndex is an in-memory inverted index over message text for the "search" command.
+ * For each conversation (room or PM pair) a term maps to the ids of the messages containing it.
+ * New postings collect in a small mutable segment; once it holds segmentPostings ids it is
+ * sealed into an immutable segment whose lists are sorted and delta-varint encoded, so an id
+ * costs a few bytes instead of a boxed long. A query intersects the lists of all its terms and
+ * walks segments from the newest id down, stopping once no older segment can beat the k-th hit.
+ *
+ * Messages are added after they are saved (MessageWriter) or as they arrive from the cluster,
+ * and at startup the index is rebuilt from storage on several threads, newest messages first.
+ * Past maxBytes the segments with the oldest ids are dropped, so the oldest messages are the
+ * first to stop being findable. The index holds ids only; the rows come from storage.
+ */
+public class SearchIndex {
+    public static final int MIN_TERM = 2, MAX_TERM = 32;
+
+    private static final int ENTRY_OVERHEAD = 80; // map node, key String and posting array headers
+    private static final char SEP = '\u0001';     // between conversation and term in a key
+
+    private final long maxBytes;
+    private final int segmentPostings;
+    private Builder active = new Builder();       // guarded by this
+    private volatile Segment[] segments = new Segment[0]; // by maxId, ascending; replaced under this
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** maxBytes of 0 turns the index off. */
+    public SearchIndex(long maxBytes, int segmentPostings) {
+        this.maxBytes = maxBytes;
+        this.segmentPostings = Math.max(1, segmentPostings);
+    }
+
+    public boolean isEnabled() { return maxBytes > 0; }
+
+    /** Lower-cased runs of letters and digits, each once; runs shorter than MIN_TERM or longer than MAX_TERM are skipped. */
+    public static List<String> terms(String text) {
+        Set<String> out = new LinkedHashSet<>();
+        int n = text.length(), start = -1;
+        for (int i = 0; i <= n; i++) {
+            if (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+                if (start < 0) start = i;
+            } else if (start >= 0) {
+                int len = i - start;
+                if (len >= MIN_TERM && len <= MAX_TERM) out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return new ArrayList<>(out);
+    }
+
+    private static String key(String conversation, String term) {
+        return conversation + SEP + term;
+    }
+
+    // ========== Segments ==========
+
+    /** Postings being collected, one growable id array per conversation and term. Not thread-safe. */
+    private static final class Builder {
+        final Map<String, long[]> lists = new HashMap<>(); // slot 0 holds the count
+        long postings, bytes;
+        long minId = Long.MAX_VALUE, maxId = Long.MIN_VALUE;
+
+        void add(String conversation, long id, List<String> terms) {
+            for (String t : terms) {
+                String k = key(conversation, t);
+                long[] l = lists.get(k);
+                if (l == null) {
+                    l = new long[4];
+                    lists.put(k, l);
+                    bytes += ENTRY_OVERHEAD + k.length() + 8L * l.length;
+                } else if (l[0] + 1 == l.length) {
+                    bytes += 8L * l.length;
+                    l = Arrays.copyOf(l, l.length * 2);
+                    lists.put(k, l);
+                }
+                l[(int) ++l[0]] = id;
+            }
+            postings += terms.size();
+            minId = Math.min(minId, id);
+            maxId = Math.max(maxId, id);
+        }
+
+        /** Ids under every key, ascending; null if there are none. */
+        long[] match(String[] keys) {
+            long[][] raw = new long[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                if ((raw[i] = lists.get(keys[i])) == null) return null;
+            }
+            Arrays.sort(raw, Comparator.comparingLong(l -> l[0]));
+            long[] acc = sorted(raw[0]);
+            for (int i = 1; i < raw.length && acc.length > 0; i++) acc = intersect(acc, sorted(raw[i]));
+            return acc;
+        }
+
+        /** A list's ids, ascending and without duplicates; ids may have been added out of order. */
+        private static long[] sorted(long[] l) {
+            long[] ids = Arrays.copyOfRange(l, 1, (int) l[0] + 1);
+            Arrays.sort(ids);
+            return dedupe(ids);
+        }
+
+        Segment seal() {
+            Map<String, byte[]> encoded = new HashMap<>(lists.size() * 4 / 3 + 1);
+            long size = 0;
+            for (Map.Entry<String, long[]> e : lists.entrySet()) {
+                String k = e.getKey();
+                byte[] b = encode(sorted(e.getValue()));
+                encoded.put(k, b);
+                size += ENTRY_OVERHEAD + k.length() + b.length;
+            }
+            return new Segment(encoded, minId, maxId, size);
+        }
+    }
+
+    /** Sealed postings: each list is a varint count, the first id, then the gaps between ids. */
+    private record Segment(Map<String, byte[]> lists, long minId, long maxId, long bytes) {
+        /** Ids under every key, ascending; null if there are none. Nothing is decoded unless every key is present. */
+        long[] match(String[] keys) {
+            byte[][] raw = new byte[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                if ((raw[i] = lists.get(keys[i])) == null) return null;
+            }
+            Arrays.sort(raw, Comparator.comparingInt(b -> b.length)); // shortest list first
+            long[] acc = decode(raw[0]);
+            for (int i = 1; i < raw.length && acc.length > 0; i++) acc = intersect(acc, decode(raw[i]));
+            return acc;
+        }
+    }
+
+    private static long[] dedupe(long[] sorted) {
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || sorted[i] != sorted[n - 1]) sorted[n++] = sorted[i];
+        }
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
+
+    private static byte[] encode(long[] ids) {
+        byte[] buf = new byte[10 * (ids.length + 1)];
+        int pos = putVarint(buf, 0, ids.length);
+        long prev = 0;
+        for (long id : ids) {
+            pos = putVarint(buf, pos, id - prev);
+            prev = id;
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    private static int putVarint(byte[] buf, int pos, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static long[] decode(byte[] b) {
+        int[] pos = {0};
+        long[] ids = new long[(int) getVarint(b, pos)];
+        long prev = 0;
+        for (int i = 0; i < ids.length; i++) ids[i] = prev += getVarint(b, pos);
+        return ids;
+    }
+
+    private static long getVarint(byte[] b, int[] pos) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte x = b[pos[0]++];
+            v |= (long) (x & 0x7F) << shift;
+            if (x >= 0) return v;
+        }
+    }
+
+    // ========== Updates ==========
+
+    /** Indexes messages that have just been saved. */
+    public void addAll(List<Message> msgs) {
+        if (!isEnabled()) return;
+        synchronized (this) {
+            for (Message m : msgs) addLocked(m.getId(), m.isRoom(), m.getSender(), m.getReceiver(), m.getText());
+        }
+        maybeEvict();
+    }
+
+    /** Indexes one message, e.g. one another node has delivered and saves itself. */
+    public void add(long id, boolean room, String sender, String receiver, String text) {
+        if (!isEnabled()) return;
+        synchronized (this) {
+            addLocked(id, room, sender, receiver, text);
+        }
+        maybeEvict();
+    }
+
+    private void addLocked(long id, boolean room, String sender, String receiver, String text) {
+        long before = active.bytes;
+        active.add(MessageStore.conversation(sender, receiver, room), id, terms(text));
+        bytes.addAndGet(active.bytes - before);
+        indexed.incrementAndGet();
+        if (active.postings >= segmentPostings) {
+            Builder full = active;
+            active = new Builder();
+            bytes.addAndGet(-full.bytes);
+            install(full.seal());
+        }
+    }
+
+    /** Adds a sealed segment and counts its bytes. */
+    private synchronized void install(Segment s) {
+        Segment[] next = Arrays.copyOf(segments, segments.length + 1);
+        int i = next.length - 1;
+        while (i > 0 && next[i - 1].maxId() > s.maxId()) {
+            next[i] = next[i - 1];
+            i--;
+        }
+        next[i] = s;
+        segments = next;
+        bytes.addAndGet(s.bytes());
+    }
+
+    /** Drops the segments with the oldest ids until the index fits in maxBytes again. */
+    private void maybeEvict() {
+        if (bytes.get() <= maxBytes) return;
+        synchronized (this) {
+            int drop = 0;
+            long size = bytes.get();
+            while (drop < segments.length && size > maxBytes) size -= segments[drop++].bytes();
+            if (drop == 0) return;
+            for (int i = 0; i < drop; i++) bytes.addAndGet(-segments[i].bytes());
+            segments = Arrays.copyOfRange(segments, drop, segments.length);
+            evictions.addAndGet(drop);
+        }
+    }
+
+    /**
+     * Reloads stored messages, chunkSize at a time on up to threads threads: each chunk is
+     * built into its own segment on the thread that read it, and reading stops once the index
+     * is full. Messages saved meanwhile are indexed as usual; a message seen twice is one hit.
+     */
+    public void rebuild(Storage storage, int threads, int chunkSize) {
+        if (!isEnabled()) return;
+        long t0 = System.nanoTime();
+        AtomicLong loaded = new AtomicLong();
+        storage.scanMessages(threads, chunkSize, chunk -> {
+            Builder b = new Builder();
+            for (Message m : chunk) b.add(MessageStore.conversation(m.getSender(), m.getReceiver(), m.isRoom()), m.getId(), terms(m.getText()));
+            if (b.postings > 0) install(b.seal());
+            loaded.addAndGet(chunk.size());
+            indexed.addAndGet(chunk.size());
+            boolean full = bytes.get() >= maxBytes;
+            maybeEvict();
+            return !full;
+        });
+        System.out.println("Search index rebuilt: " + loaded.get() + " messages, " + segments.length + " segments, "
+                + bytes.get() / 1024 + " KB in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+    }
+
+    // ========== Queries ==========
+
+    /**
+     * Ids of the newest messages in the conversation that contain every term, older than beforeId
+     * if it is set, newest first and at most limit of them.
+     */
+    public long[] search(boolean room, String user, String target, List<String> terms, Long beforeId, int limit) {
+        if (!isEnabled() || terms.isEmpty()) return new long[0];
+        String conversation = MessageStore.conversation(user, target, room);
+        String[] keys = new String[terms.size()];
+        for (int i = 0; i < keys.length; i++) keys[i] = key(conversation, terms.get(i));
+        long before = beforeId != null ? beforeId : Long.MAX_VALUE;
+        TreeSet<Long> hits = new TreeSet<>();
+        long[] recent;
+        synchronized (this) {
+            // ids in the active segment can be older than sealed ones, so it is always searched
+            recent = active.match(keys);
+        }
+        collect(recent, before, limit, hits);
+        Segment[] segs = segments;
+        for (int i = segs.length - 1; i >= 0; i--) {
+            Segment s = segs[i];
+            if (hits.size() == limit && s.maxId() <= hits.first()) break; // every remaining segment is older still
+            if (s.minId() >= before) continue;
+            collect(s.match(keys), before, limit, hits);
+        }
+        long[] out = new long[hits.size()];
+        int n = 0;
+        for (Long id : hits.descendingSet()) out[n++] = id;
+        return out;
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { out[n++] = a[i]; i++; j++; }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /** Keeps the limit newest ids below before; ids are ascending, so the walk runs backwards. */
+    private static void collect(long[] ids, long before, int limit, TreeSet<Long> hits) {
+        if (ids == null) return;
+        for (int i = ids.length - 1; i >= 0; i--) {
+            long id = ids[i];
+            if (id >= before) continue;
+            if (hits.size() == limit && id <= hits.first()) return;
+            hits.add(id);
+            if (hits.size() > limit) hits.pollFirst();
+        }
+    }
+
+    // ========== Counters ==========
+    public long getBytes() { return bytes.get(); }
+    public int getSegments() { return segments.length; }
+    public long getIndexed() { return indexed.get(); }
+    public long getEvictions() { return evictions.get(); }
+}
@@ -0,0 +1,104 @@
+package com.chatapp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SessionStore issues random session tokens after a password login and resolves them on
+ * "resume", so a reconnecting client skips the DB password fetch and PBKDF2 entirely.
+ * Tokens live in memory until they expire; with persistence on, a SHA-256 of each token is
+ * also written to the sessions table so sessions survive a server restart.
+ */
+public class SessionStore {
+    private record Session(String username, long expiresAt) {}
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final Storage storage;
+    private final boolean persist;
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public SessionStore(long ttlMillis, Storage storage, boolean persist) {
+        this.ttlMillis = ttlMillis;
+        this.storage = storage;
+        this.persist = persist;
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleAtFixedRate(this::sweep, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /** Creates a session for a user who just proved their password and returns its token. */
+    public String issue(String username) {
+        byte[] raw = new byte[32];
+        RANDOM.nextBytes(raw);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        sessions.put(token, new Session(username, expiresAt));
+        if (persist) storage.saveSession(hash(token), username, expiresAt);
+        return token;
+    }
+
+    /** Returns the username for a live token, or null if it is unknown or expired. */
+    public String resume(String token) {
+        long now = System.currentTimeMillis();
+        Session s = sessions.get(token);
+        if (s == null && persist) {
+            s = loadPersisted(token);
+        }
+        if (s == null || s.expiresAt() <= now) {
+            if (s != null) revoke(token);
+            rejected.incrementAndGet();
+            return null;
+        }
+        resumed.incrementAndGet();
+        return s.username();
+    }
+
+    private Session loadPersisted(String token) {
+        Storage.StoredSession stored = storage.fetchSession(hash(token));
+        if (stored == null) return null;
+        Session s = new Session(stored.username(), stored.expiresAt());
+        sessions.put(token, s);
+        return s;
+    }
+
+    public void revoke(String token) {
+        sessions.remove(token);
+        if (persist) storage.deleteSession(hash(token));
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(s -> s.expiresAt() <= now);
+        if (persist) storage.deleteExpiredSessions(now);
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return HexFormat.of().formatHex(d);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getActive() { return sessions.size(); }
+    public long getResumed() { return resumed.get(); }
+    public long getRejected() { return rejected.get(); }
+}
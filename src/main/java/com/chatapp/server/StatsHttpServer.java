@@ -0,0 +1,36 @@
+package com.chatapp.server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * StatsHttpServer serves Metrics.render() as text/plain on GET /metrics, for Prometheus or curl.
+ * It runs on the JDK's built-in HTTP server with its own single thread, off the chat hot path.
+ */
+public final class StatsHttpServer {
+    private StatsHttpServer() {}
+
+    public static HttpServer start(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext("/metrics", ex -> {
+            try (ex) {
+                if (!"GET".equals(ex.getRequestMethod())) {
+                    ex.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = Metrics.render().getBytes(StandardCharsets.UTF_8);
+                ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                ex.sendResponseHeaders(200, body.length);
+                try (OutputStream out = ex.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        http.start();
+        return http;
+    }
+}
@@ -0,0 +1,82 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import com.chatapp.util.Config;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Storage is everything the server persists: users, invites, rooms, memberships, messages
+ * and resumable sessions. The server opens one at startup (Config.STORAGE) and hands it to
+ * its components:
+ * "mysql" (default) is JdbcStorage on Config.DB_URL,
+ * "h2" is JdbcStorage on an embedded H2 database (Config.H2_URL),
+ * "memory" is MemoryStorage, which keeps everything on the heap and boots instantly.
+ * With Config.MESSAGE_STORE "log", messages go to a LogMessageStore whatever the backend.
+ * Failures are counted and reported as false/null, never thrown.
+ */
+public interface Storage extends AutoCloseable {
+    record StoredSession(String username, long expiresAt) {}
+
+    /** False if the username is taken (or the write failed). */
+    boolean createUser(String username, String passwordHash);
+    String fetchStoredPassword(String username);
+
+    void createInvite(String token);
+    /** Cheap pre-check before expensive work; useInvite still decides atomically. */
+    boolean inviteAvailable(String token);
+    /** Marks the token used; true for exactly one caller per token. */
+    boolean useInvite(String token);
+
+    void ensureRoom(String name);
+    boolean isRoom(String name);
+    void addMembership(String username, String room);
+    void removeMembership(String username, String room);
+    /** Every room the user is a member of, in one round trip. */
+    List<String> fetchMemberships(String username);
+
+    /** Stores all messages in one write (one transaction, or one append). Returns false if nothing was stored. */
+    boolean saveMessages(List<Message> msgs);
+
+    /**
+     * Keyset-paginated history. With afterId the page holds the oldest messages newer than it,
+     * oldest first; otherwise the newest messages older than beforeId (or the newest overall),
+     * newest first. isRoom is the caller's verdict on target, so the store does not look it up again.
+     */
+    List<Map<String,Object>> fetchHistory(String username, String target, boolean isRoom, Long beforeId, Long afterId, int limit);
+
+    /** The rows with these ids in the conversation with target, newest first; unknown ids are skipped. */
+    List<Map<String,Object>> fetchMessages(String username, String target, boolean isRoom, long[] ids);
+
+    /** Every stored message in chunks, for rebuilding in-memory indexes; see MessageStore.scan. */
+    void scanMessages(int parallelism, int chunkSize, Predicate<List<Message>> sink);
+
+    void saveSession(String tokenHash, String username, long expiresAt);
+    StoredSession fetchSession(String tokenHash);
+    void deleteSession(String tokenHash);
+    void deleteExpiredSessions(long now);
+
+    default boolean saveMessage(Message m) {
+        return saveMessages(List.of(m));
+    }
+
+    @Override
+    default void close() {}
+
+    static Storage fromConfig() throws SQLException, IOException {
+        MessageStore log = "log".equals(Config.MESSAGE_STORE)
+                ? new LogMessageStore(Path.of(Config.LOG_DIR), Config.LOG_SEGMENT_BYTES, Config.LOG_FSYNC)
+                : null;
+        return switch (Config.STORAGE) {
+            case "memory" -> new MemoryStorage(log != null ? log : new MemoryMessageStore(Config.MEMORY_MAX_MESSAGES_PER_CONVERSATION));
+            case "h2" -> new JdbcStorage(Config.H2_URL, "sa", "", log);
+            case "mysql" -> new JdbcStorage(Config.DB_URL, Config.DB_USER, Config.DB_PASS, log);
+            default -> throw new IllegalArgumentException("Unknown storage: " + Config.STORAGE);
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package com.chatapp.server;
+
+import com.chatapp.util.Config;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * StreamTransport writes frames to a blocking socket stream.
+ * Used in thread-per-connection and virtual-thread mode. send() only queues the frame;
+ * a writer task on the server's executor drains the queue, writing every pending frame
+ * before a single flush, so a slow reader never blocks the thread that is broadcasting.
+ */
+public class StreamTransport implements Transport {
+    private final Socket socket;
+    private final OutputStream out;
+    private final Executor writers;
+    private final OutboundQueue queue;
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    public StreamTransport(Socket socket, Executor writers, Function<Frame, byte[]> encoder) throws IOException {
+        this.socket = socket;
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.writers = writers;
+        this.queue = new OutboundQueue(Config.OUTBOUND_QUEUE_CAPACITY, OutboundQueue.parsePolicy(Config.SLOW_CONSUMER_POLICY), encoder);
+    }
+
+    @Override
+    public void send(byte[] frame) throws IOException {
+        if (closed) throw new IOException("connection closed");
+        if (!queue.offer(frame)) {
+            abort();
+            throw new IOException("slow consumer disconnected");
+        }
+        if (writing.compareAndSet(false, true)) {
+            writers.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                byte[] f;
+                while ((f = queue.poll()) != null) {
+                    out.write(f);
+                }
+                out.flush();
+                if (closed) { closeSocket(); return; }
+                writing.set(false);
+                if ((queue.isEmpty() && !closed) || !writing.compareAndSet(false, true)) return;
+            }
+        } catch (IOException e) {
+            closeSocket();
+        }
+    }
+
+    /** Writes whatever is still queued, then closes the socket. */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        if (writing.compareAndSet(false, true)) drain();
+    }
+
+    @Override
+    public void abort() {
+        closed = true;
+        queue.clear();
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try { socket.close(); } catch (IOException ignore) {}
+    }
+}
@@ -0,0 +1,267 @@
+package com.chatapp.server;
+
+import com.chatapp.server.ClusterEvent.Type;
+import com.chatapp.util.Config;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * TcpClusterBus is a full mesh of TCP links between nodes.
+ * Every node listens on chat.cluster.port and dials each address in chat.cluster.peers.
+ * Links are one-way: a node sends on the links it dialed and receives on the ones it accepted.
+ * A dialed link starts with HELLO and a snapshot of this node's users and rooms; the acceptor
+ * answers with its own HELLO so the dialer learns the peer's node id. Each outbound link has a
+ * bounded queue and a writer that flushes once per drain; if the queue overflows the link is
+ * dropped and re-dialed, and the new snapshot puts the peer back in sync.
+ *
+ * With a shared secret the acceptor's HELLO carries a random nonce, and the dialer must answer
+ * with a second HELLO holding HMAC-SHA256(secret, nonce:node) before anything it sends is
+ * applied; a peer that fails is disconnected. Without a secret any host that can reach the
+ * port is trusted, so the port must be private.
+ */
+public class TcpClusterBus extends AbstractClusterBus {
+    private static final long MAX_BACKOFF_MS = 5_000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 5_000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int port;
+    private final List<InetSocketAddress> peers;
+    private final byte[] secret; // empty = no authentication
+    private final Map<Integer, Link> outbound = new ConcurrentHashMap<>();
+    private final Map<Integer, Socket> inbound = new ConcurrentHashMap<>();
+    private final AtomicLong linkDrops = new AtomicLong();
+    private volatile ServerSocket serverSocket;
+    private volatile boolean closed = false;
+
+    public TcpClusterBus(int nodeId, int port, String peers, String secret) {
+        super(nodeId);
+        this.port = port;
+        this.peers = parsePeers(peers);
+        this.secret = secret == null ? new byte[0] : secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static List<InetSocketAddress> parsePeers(String spec) {
+        List<InetSocketAddress> out = new ArrayList<>();
+        if (spec == null) return out;
+        for (String p : spec.split(",")) {
+            p = p.trim();
+            if (p.isEmpty()) continue;
+            int i = p.lastIndexOf(':');
+            if (i < 0) throw new IllegalArgumentException("peer must be host:port: " + p);
+            out.add(new InetSocketAddress(p.substring(0, i), Integer.parseInt(p.substring(i + 1))));
+        }
+        return out;
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        setListener(listener);
+        serverSocket = new ServerSocket(port);
+        daemon("cluster-accept", this::acceptLoop).start();
+        for (InetSocketAddress peer : peers) {
+            daemon("cluster-dial-" + peer, () -> dialLoop(peer)).start();
+        }
+    }
+
+    private static Thread daemon(String name, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    // ---- receiving side ----
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket s = serverSocket.accept();
+                daemon("cluster-in", () -> readLoop(s)).start();
+            } catch (IOException e) {
+                if (closed) return;
+            }
+        }
+    }
+
+    private void readLoop(Socket s) {
+        int node = -1;
+        try (s) {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            int peer = readHello(in).node();
+            String nonce = secret.length == 0 ? null : newNonce();
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            ClusterEvent.of(Type.HELLO, nodeId, nonce).writeTo(out);
+            out.flush();
+            if (nonce != null) {
+                ClusterEvent proof = readHello(in);
+                if (proof.node() != peer || !MessageDigest.isEqual(
+                        proof.name().getBytes(StandardCharsets.UTF_8), mac(nonce, peer).getBytes(StandardCharsets.UTF_8))) {
+                    throw new IOException("cluster peer failed authentication");
+                }
+            }
+            s.setSoTimeout(0);
+            node = peer;
+            // a re-dialed peer resends its snapshot, so anything from an older link is stale
+            Socket old = inbound.put(node, s);
+            if (old != null) try { old.close(); } catch (IOException ignore) {}
+            nodeDown(node);
+            while (!closed) receive(ClusterEvent.readFrom(in));
+        } catch (IOException e) {
+            // peer went away
+        } finally {
+            if (node >= 0 && inbound.remove(node, s)) nodeDown(node);
+        }
+    }
+
+    // ---- sending side ----
+
+    private void dialLoop(InetSocketAddress peer) {
+        long backoff = 100;
+        while (!closed) {
+            try (Socket s = new Socket()) {
+                s.connect(peer, 2_000);
+                s.setTcpNoDelay(true);
+                Link link = new Link(s);
+                ClusterEvent.of(Type.HELLO, nodeId, null).writeTo(link.out);
+                link.out.flush();
+                s.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+                ClusterEvent hello = readHello(new DataInputStream(s.getInputStream()));
+                s.setSoTimeout(0);
+                int node = hello.node();
+                if (node == nodeId) return; // our own address is in the peer list
+                if (secret.length > 0) {
+                    if (hello.name().isEmpty()) throw new IOException("peer has no cluster secret");
+                    ClusterEvent.of(Type.HELLO, nodeId, mac(hello.name(), nodeId)).writeTo(link.out);
+                    link.out.flush();
+                }
+                synchronized (this) {
+                    List<ClusterEvent> snap = snapshot();
+                    for (ClusterEvent e : snap.subList(1, snap.size())) {
+                        if (!link.queue.offer(e)) throw new IOException("snapshot exceeds chat.cluster.queueCapacity");
+                    }
+                    outbound.put(node, link);
+                }
+                backoff = 100;
+                try {
+                    link.writeLoop();
+                } finally {
+                    outbound.remove(node, link);
+                    linkDrops.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // not up yet, or the link dropped
+            }
+            if (closed) return;
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private static ClusterEvent readHello(DataInputStream in) throws IOException {
+        ClusterEvent hello = ClusterEvent.readFrom(in);
+        if (hello.type() != Type.HELLO) throw new IOException("expected HELLO");
+        return hello;
+    }
+
+    private static String newNonce() {
+        byte[] b = new byte[16];
+        RANDOM.nextBytes(b);
+        return HexFormat.of().formatHex(b);
+    }
+
+    /** Proof that the dialing node knows the secret, bound to the acceptor's nonce and the dialer's id. */
+    private String mac(String nonce, int node) {
+        try {
+            Mac m = Mac.getInstance("HmacSHA256");
+            m.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return HexFormat.of().formatHex(m.doFinal((nonce + ":" + node).getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final class Link {
+        final Socket socket;
+        final DataOutputStream out;
+        final BlockingQueue<ClusterEvent> queue = new ArrayBlockingQueue<>(Config.CLUSTER_QUEUE_CAPACITY);
+        volatile boolean broken = false;
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        }
+
+        boolean offer(ClusterEvent e) {
+            if (broken) return false;
+            if (queue.offer(e)) return true;
+            // the peer fell too far behind; drop the link so it is re-dialed and resynced
+            broken = true;
+            try { socket.close(); } catch (IOException ignore) {}
+            return false;
+        }
+
+        void writeLoop() throws IOException {
+            try {
+                while (!closed && !broken) {
+                    ClusterEvent e = queue.poll(1, TimeUnit.SECONDS);
+                    if (e == null) continue;
+                    do {
+                        e.writeTo(out);
+                    } while ((e = queue.poll()) != null);
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    protected boolean send(int node, ClusterEvent e) {
+        Link link = outbound.get(node);
+        return link != null && link.offer(e);
+    }
+
+    @Override
+    protected void sendAll(ClusterEvent e) {
+        for (Link link : outbound.values()) link.offer(e);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try { if (serverSocket != null) serverSocket.close(); } catch (IOException ignore) {}
+        for (Link link : outbound.values()) {
+            try { link.socket.close(); } catch (IOException ignore) {}
+        }
+        for (Socket s : inbound.values()) {
+            try { s.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    public int getConnectedPeers() { return outbound.size(); }
+    public long getLinkDrops() { return linkDrops.get(); }
+}
@@ -0,0 +1,20 @@
+package com.chatapp.server;
+
+import java.io.IOException;
+
+/**
+ * Transport is the write side of a single client connection.
+ * ClientHandler passes it complete frames in the connection's wire format (see Frame); how the bytes
+ * reach the socket (blocking stream or selector loop) is up to the implementation.
+ * Frames may be shared between connections and must not be modified.
+ */
+public interface Transport {
+    void send(byte[] frame) throws IOException;
+
+    void close();
+
+    /** Closes at once, dropping queued frames; for a peer that is gone. */
+    default void abort() {
+        close();
+    }
+}
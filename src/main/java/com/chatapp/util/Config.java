@@ -1,13 +1,112 @@
 package com.chatapp.util;
 
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 public class Config {
-    // MySQL JDBC URL - update host, port, database name if needed
-    public static final String DB_URL = "jdbc:mysql://localhost:3306/chat_system?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC";
-    public static final String DB_USER = "chatuser";
-    public static final String DB_PASS = "chatpass";
+    // Storage backend: "mysql" (DB_URL), "h2" (embedded H2 at H2_URL, in MySQL mode) or "memory" (heap only)
+    public static final String STORAGE = System.getProperty("chat.storage", "mysql");
+    public static final String H2_URL = System.getProperty("chat.h2.url", "jdbc:h2:mem:chat;MODE=MySQL;DB_CLOSE_DELAY=-1");
+    // With "memory", messages kept per room/PM pair before the oldest half is dropped
+    public static final int MEMORY_MAX_MESSAGES_PER_CONVERSATION = Integer.getInteger("chat.memory.maxMessagesPerConversation", 100_000);
+
+    // MySQL JDBC URL - update host, port, database name if needed (or pass -Dchat.db.url=...)
+    public static final String DB_URL = System.getProperty("chat.db.url", "jdbc:mysql://localhost:3306/chat_system?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC&rewriteBatchedStatements=true");
+    public static final String DB_USER = System.getProperty("chat.db.user", "chatuser");
+    public static final String DB_PASS = System.getProperty("chat.db.pass", "chatpass");
+
+    // JDBC connection pool: max connections, how long a caller waits for one, when idle
+    // connections are re-validated, and the per-statement query timeout (0 = none)
+    public static final int DB_POOL_SIZE = Integer.getInteger("chat.db.poolSize", 2 * Runtime.getRuntime().availableProcessors());
+    public static final long DB_ACQUIRE_TIMEOUT_MS = Long.getLong("chat.db.acquireTimeoutMs", 5_000);
+    public static final long DB_VALIDATE_AFTER_MS = Long.getLong("chat.db.validateAfterMs", 30_000);
+    public static final int DB_QUERY_TIMEOUT_SECONDS = Integer.getInteger("chat.db.queryTimeoutSeconds", 10);
+
+    // Max entries in each of the username->id and room->id caches
+    public static final int ID_CACHE_SIZE = Integer.getInteger("chat.db.idCacheSize", 100_000);
 
     // Server port
     public static final int SERVER_PORT = 5000;
 
+    // Id of this server node (0-1023); part of every message id
+    public static final int NODE_ID = Integer.getInteger("chat.node.id", 0);
+
+    // Server mode: "threads" (one thread per client), "virtual" (one virtual thread per client)
+    // or "nio" (selector loops + worker pool)
+    public static final String SERVER_MODE = System.getProperty("chat.server.mode", "threads");
+    public static final int NIO_IO_THREADS = Integer.getInteger("chat.nio.ioThreads", Runtime.getRuntime().availableProcessors());
+    public static final int NIO_WORKER_THREADS = Integer.getInteger("chat.nio.workerThreads", 2 * Runtime.getRuntime().availableProcessors());
+
+    // Per-connection outbound queue: max queued frames and what to do when a client falls behind
+    // ("mark_lagging", "drop_oldest" or "disconnect")
+    public static final int OUTBOUND_QUEUE_CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+    public static final String SLOW_CONSUMER_POLICY = System.getProperty("chat.outbound.policy", "mark_lagging");
+
+    // Write-behind message persistence: queue size, flush every N messages or M milliseconds,
+    // and when "msg"/"pm" are acknowledged ("enqueue" or "commit")
+    public static final int PERSIST_QUEUE_CAPACITY = Integer.getInteger("chat.persist.capacity", 10_000);
+    public static final int PERSIST_BATCH_SIZE = Integer.getInteger("chat.persist.batchSize", 200);
+    public static final long PERSIST_FLUSH_MILLIS = Long.getLong("chat.persist.flushMillis", 5);
+    public static final String PERSIST_ACK = System.getProperty("chat.persist.ack", "enqueue");
+
+    // Message storage: "storage" (the backend above) or "log" (append-only segment files in chat.log.dir,
+    // preallocated to chat.log.segmentBytes each, fsync'd per batch when chat.log.fsync is set)
+    public static final String MESSAGE_STORE = System.getProperty("chat.store", "storage");
+    public static final String LOG_DIR = System.getProperty("chat.log.dir", "data/messages");
+    public static final int LOG_SEGMENT_BYTES = Integer.getInteger("chat.log.segmentBytes", 64 * 1024 * 1024);
+    public static final boolean LOG_FSYNC = Boolean.getBoolean("chat.log.fsync");
+
+    // Heartbeats: a client silent for intervalMs gets a ping (0 = off) and one silent for idleTimeoutMs
+    // is disconnected; the checks run on one hashed-wheel timer with this tick and number of slots
+    public static final long HEARTBEAT_INTERVAL_MS = Long.getLong("chat.heartbeat.intervalMs", 30_000);
+    public static final long IDLE_TIMEOUT_MS = Long.getLong("chat.heartbeat.idleTimeoutMs", 90_000);
+    public static final long TIMER_TICK_MS = Long.getLong("chat.timer.tickMs", 100);
+    public static final int TIMER_WHEEL_SIZE = Integer.getInteger("chat.timer.wheelSize", 1024);
+
+    // Token-bucket rate limits as perSecond/burst (0 = unlimited): per user for each command
+    // ("*" = every command not named), and for messages into one room from all its senders on this node
+    public static final String RATE_LIMITS_USER = System.getProperty("chat.rate.user", "msg=50/100,pm=50/100,history=20/40,search=5/10,sync=2/5,join=20/40,*=100/200");
+    public static final String RATE_LIMIT_ROOM_MSG = System.getProperty("chat.rate.roomMsg", "2000/4000");
+
+    // Room broadcasts to more members than this are split across the common ForkJoin pool
+    public static final long ROOM_PARALLEL_BROADCAST_THRESHOLD = Long.getLong("chat.room.parallelBroadcastThreshold", 10_000);
+
+    // In-memory recent history: messages kept per room/PM pair, and caps on conversations and bytes
+    public static final int HISTORY_RING_SIZE = Integer.getInteger("chat.history.ringSize", 100);
+    public static final int HISTORY_MAX_CONVERSATIONS = Integer.getInteger("chat.history.maxConversations", 20_000);
+    public static final long HISTORY_MAX_BYTES = Long.getLong("chat.history.maxBytes", 256L * 1024 * 1024);
+
+    // Full-text search index: byte budget (0 = off; past it the oldest segments are dropped), ids per
+    // segment before it is sealed and compressed, and threads and messages per chunk for the startup rebuild
+    public static final long SEARCH_MAX_BYTES = Long.getLong("chat.search.maxBytes", 128L * 1024 * 1024);
+    public static final int SEARCH_SEGMENT_POSTINGS = Integer.getInteger("chat.search.segmentPostings", 100_000);
+    public static final int SEARCH_REBUILD_THREADS = Integer.getInteger("chat.search.rebuildThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    public static final int SEARCH_REBUILD_CHUNK = Integer.getInteger("chat.search.rebuildChunk", 10_000);
+
+    // PBKDF2 work: dedicated threads and how many requests may wait before "server busy"
+    public static final int CRYPTO_THREADS = Integer.getInteger("chat.crypto.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    public static final int CRYPTO_QUEUE_LIMIT = Integer.getInteger("chat.crypto.queueLimit", 256);
+
+    // Resumable sessions: token lifetime, and whether tokens (hashed) survive a restart in the sessions table
+    public static final long SESSION_TTL_SECONDS = Long.getLong("chat.session.ttlSeconds", 24 * 3600);
+    public static final boolean SESSION_PERSIST = Boolean.getBoolean("chat.session.persist");
+
+    // Clustering: port this node listens on for peers (0 = single node), peers to dial as
+    // "host:port,host:port", and how many events may queue per peer before the link is reset
+    public static final int CLUSTER_PORT = Integer.getInteger("chat.cluster.port", 0);
+    public static final String CLUSTER_PEERS = System.getProperty("chat.cluster.peers", "");
+    public static final int CLUSTER_QUEUE_CAPACITY = Integer.getInteger("chat.cluster.queueCapacity", 65_536);
+    // Secret every node of a cluster shares; a dialing peer must prove it knows it (HMAC over a
+    // nonce) before its events are applied. Without one any host that reaches chat.cluster.port
+    // can inject messages and presence, so the port must then only be reachable on a private network.
+    public static final String CLUSTER_SECRET = System.getProperty("chat.cluster.secret", "");
+
+    // Metrics: port of the plain-text HTTP scrape endpoint (0 = off), and users allowed to run "stats"
+    // as a comma-separated list; nobody by default, so no account name carries rights implicitly
+    public static final int METRICS_PORT = Integer.getInteger("chat.metrics.port", 0);
+    public static final Set<String> ADMIN_USERS = Arrays.stream(System.getProperty("chat.admin.users", "").split(","))
+            .map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toUnmodifiableSet());
+
     private Config() {}
 }
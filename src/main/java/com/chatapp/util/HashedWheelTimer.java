@@ -0,0 +1,173 @@
+package com.chatapp.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HashedWheelTimer runs short tasks after a delay on one thread, built for very many pending
+ * timeouts (one per connection). A timeout hashes into a ring of buckets by its deadline tick;
+ * every tick the worker walks one bucket and runs what is due, so schedule and cancel are O(1)
+ * and a task fires up to one tick late. schedule() and cancel() only append to queues the worker
+ * drains, so callers on any thread never touch the wheel itself.
+ * Tasks run on the timer thread and must be quick; slow work belongs on an executor.
+ */
+public final class HashedWheelTimer implements AutoCloseable {
+    private static final int INIT = 0, CANCELLED = 1, EXPIRED = 2;
+    // new timeouts placed per tick, so a burst of schedules cannot stall the wheel
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final long startNanos;
+    private final Thread worker;
+    private volatile boolean stopped = false;
+    private long tick; // worker only
+
+    /** wheelSize is rounded up to a power of two; the wheel spans tickMillis * wheelSize per lap. */
+    public HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tick must be positive: " + tickMillis);
+        if (wheelSize <= 0 || wheelSize > 1 << 30) throw new IllegalArgumentException("wheel size out of range: " + wheelSize);
+        int size = wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** A scheduled task; cancel it when it is no longer needed. */
+    public final class Timeout {
+        private final Runnable task;
+        private final long deadline; // nanos since startNanos
+        private final AtomicInteger state = new AtomicInteger(INIT);
+        // worker only
+        private long rounds;
+        private Bucket bucket;
+        private Timeout prev, next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /** Keeps the task from running; false if it already ran or was cancelled. */
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) return false;
+            pending.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() { return state.get() == CANCELLED; }
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) throw new IllegalStateException("timer stopped");
+        Timeout t = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(Math.max(0, delay)));
+        pending.incrementAndGet();
+        added.add(t);
+        return t;
+    }
+
+    private void run() {
+        while (!stopped) {
+            long sleep = tickNanos * (tick + 1) - (System.nanoTime() - startNanos);
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep); // may return early; the loop re-checks
+                continue;
+            }
+            removeCancelled();
+            transferAdded();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null) t.bucket.remove(t);
+        }
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout t = added.poll();
+            if (t == null) return;
+            if (t.state.get() != INIT) continue; // cancelled before it was placed
+            long due = t.deadline / tickNanos;
+            t.rounds = Math.max(0, (due - tick) / wheel.length);
+            wheel[(int) (Math.max(due, tick) & mask)].add(t); // overdue ones go into the current bucket
+        }
+    }
+
+    /** Doubly linked list of the timeouts hashed to one slot. */
+    private final class Bucket {
+        private Timeout head, tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null) t.prev.next = t.next; else head = t.next;
+            if (t.next != null) t.next.prev = t.prev; else tail = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+        }
+
+        /** Runs the entries due this lap and counts the others down one round. */
+        void expire() {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.state.get() == CANCELLED) {
+                    remove(t);
+                } else if (t.rounds <= 0) {
+                    remove(t);
+                    if (t.state.compareAndSet(INIT, EXPIRED)) {
+                        pending.decrementAndGet();
+                        expired.incrementAndGet();
+                        try {
+                            t.task.run();
+                        } catch (Throwable e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } else {
+                    t.rounds--;
+                }
+                t = next;
+            }
+        }
+    }
+
+    public long getPending() { return pending.get(); }
+    public long getExpired() { return expired.get(); }
+
+    /** Stops the worker; timeouts that have not fired yet never will. */
+    @Override
+    public void close() {
+        stopped = true;
+        LockSupport.unpark(worker);
+    }
+}
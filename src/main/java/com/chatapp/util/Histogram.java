@@ -0,0 +1,80 @@
+package com.chatapp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram is a fixed-size, log-linear latency histogram in the style of HdrHistogram:
+ * values below 32 get their own bucket, above that each power of two is split into 32
+ * sub-buckets, so any recorded value is reported within about 3%. record() is a single atomic
+ * increment (plus a rare CAS for a new maximum) and never allocates; the sum is estimated
+ * from the buckets at read time. Readers see a live, slightly racy view.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.getAndIncrement(index(value));
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    /** Largest value that falls in bucket i. */
+    static long upperBound(int i) {
+        if (i < SUB) return i;
+        int shift = i / SUB - 1;
+        if (shift >= 63 - SUB_BITS) return Long.MAX_VALUE;
+        long base = (long) (SUB + i % SUB) << shift;
+        return base + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+        return n;
+    }
+
+    /** Sum of recorded values, each counted at its bucket's midpoint (within about 3%). */
+    public long getSum() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = counts.get(i);
+            if (n != 0) total += n * midpoint(i);
+        }
+        return total;
+    }
+
+    private static long midpoint(int i) {
+        if (i < SUB) return i;
+        long lo = upperBound(i - 1) + 1;
+        return lo + (upperBound(i) - lo) / 2;
+    }
+    public long getMax() { return max.get(); }
+
+    /** Value at quantile q (0..1), as the upper bound of the bucket it falls in; 0 if empty. */
+    public long percentile(double q) {
+        long[] snap = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += (snap[i] = counts.get(i));
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snap[i];
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,36 @@
+package com.chatapp.util;
+
+/**
+ * MessageIds hands out time-ordered 63-bit message ids:
+ * 41 bits of milliseconds since 2024-01-01, 10 bits of node id and a 12-bit sequence.
+ * Ids are assigned when a message is accepted, before it is persisted, so in-memory
+ * history can use them as pagination cursors, and nodes never collide.
+ */
+public final class MessageIds {
+    private static final long EPOCH = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQ_BITS = 12;
+    private static final long SEQ_MASK = (1L << SEQ_BITS) - 1;
+
+    private final long node;
+    private long lastMillis = -1;
+    private long seq = 0;
+
+    public MessageIds(int nodeId) {
+        if (nodeId < 0 || nodeId >= (1 << NODE_BITS)) throw new IllegalArgumentException("node id out of range: " + nodeId);
+        this.node = nodeId;
+    }
+
+    public synchronized long next() {
+        long now = System.currentTimeMillis();
+        if (now < lastMillis) now = lastMillis; // clock stepped back: keep ids increasing
+        if (now == lastMillis) {
+            seq = (seq + 1) & SEQ_MASK;
+            if (seq == 0) now = ++lastMillis; // sequence exhausted: borrow the next millisecond
+        } else {
+            seq = 0;
+        }
+        lastMillis = now;
+        return ((now - EPOCH) << (NODE_BITS + SEQ_BITS)) | (node << SEQ_BITS) | seq;
+    }
+}
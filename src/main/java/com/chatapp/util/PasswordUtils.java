@@ -7,18 +7,27 @@ import java.security.spec.KeySpec;
 import java.util.Base64;
 import java.util.Arrays;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class PasswordUtils {
     private static final int ITER = 200_000;
     private static final int KEYLEN = 256;
     private static final SecureRandom RANDOM = new SecureRandom();
+    // SecretKeyFactory is not thread-safe and costly to look up; keep one per thread
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
 
     public static String hashPassword(char[] password) {
         try {
             byte[] salt = new byte[16];
             RANDOM.nextBytes(salt);
             KeySpec spec = new PBEKeySpec(password, salt, ITER, KEYLEN);
-            SecretKeyFactory f = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            SecretKeyFactory f = FACTORY.get();
             byte[] dk = f.generateSecret(spec).getEncoded();
             String sSalt = Base64.getEncoder().encodeToString(salt);
             String sDk = Base64.getEncoder().encodeToString(dk);
@@ -37,7 +46,7 @@ public class PasswordUtils {
             byte[] salt = Base64.getDecoder().decode(parts[0]);
             byte[] dkStored = Base64.getDecoder().decode(parts[1]);
             KeySpec spec = new PBEKeySpec(attempt, salt, ITER, KEYLEN);
-            SecretKeyFactory f = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            SecretKeyFactory f = FACTORY.get();
             byte[] dk = f.generateSecret(spec).getEncoded();
             boolean ok = MessageDigest.isEqual(dkStored, dk);
             return ok;
@@ -0,0 +1,38 @@
+package com.chatapp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TokenBucket is a lock-free rate limiter: tokens accrue at a fixed rate up to a burst.
+ * Instead of a token count and a refill timestamp it keeps one long, the time at which the
+ * bucket would be empty again if nothing else were taken (GCRA), so tryAcquire is one clock
+ * read and, when a token is granted, one CAS. Refused calls write nothing. No refill thread.
+ */
+public final class TokenBucket {
+    private final long intervalNanos; // time to earn one token
+    private final long burstNanos;    // how far ahead of now the bucket may be drawn
+    private final AtomicLong emptyUntil;
+
+    public TokenBucket(double perSecond, int burst) {
+        if (perSecond <= 0 || burst <= 0) throw new IllegalArgumentException("rate and burst must be positive");
+        this.intervalNanos = Math.max(1, (long) (1e9 / perSecond));
+        this.burstNanos = intervalNanos * burst;
+        this.emptyUntil = new AtomicLong(System.nanoTime()); // starts full
+    }
+
+    /** Takes one token if there is one. */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long t = emptyUntil.get();
+            long next = Math.max(t, now) + intervalNanos;
+            if (next - now > burstNanos) return false;
+            if (emptyUntil.compareAndSet(t, next)) return true;
+        }
+    }
+
+    /** How long until the bucket holds its whole burst again; 0 if it already does. */
+    public long nanosUntilFull() {
+        return Math.max(0, emptyUntil.get() - System.nanoTime());
+    }
+}
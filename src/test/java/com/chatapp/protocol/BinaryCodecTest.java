@@ -0,0 +1,80 @@
+package com.chatapp.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCodecTest {
+
+    private static Command roundTrip(Command c) throws IOException {
+        return new BinaryFrameReader<>(new ByteArrayInputStream(BinaryCodec.encode(c)), BinaryCodec::decodeCommand).next();
+    }
+
+    @Test
+    void batchItemsDecodeInPlace() throws IOException {
+        Command.Batch batch = new Command.Batch(List.of(
+                new Command.Item(1, new Command.Join("general")),
+                new Command.Item(2, new Command.Msg("general", "hello")),
+                new Command.Item(3, new Command.History("general", 20, 100L, null))));
+        assertEquals(batch, roundTrip(batch));
+    }
+
+    @Test
+    void nestedBatchIsInvalid() throws IOException {
+        Command inner = new Command.Batch(List.of(new Command.Item(1, Command.ROOMS)));
+        Command.Batch outer = new Command.Batch(List.of(
+                new Command.Item(1, inner),
+                new Command.Item(2, new Command.Join("general"))));
+        Command.Batch decoded = assertInstanceOf(Command.Batch.class, roundTrip(outer));
+        assertEquals(2, decoded.commands().size());
+        assertInstanceOf(Command.Invalid.class, decoded.commands().get(0).command());
+        assertEquals(new Command.Join("general"), decoded.commands().get(1).command());
+    }
+
+    @Test
+    void oversizedBatchIsInvalid() throws IOException {
+        List<Command.Item> items = new ArrayList<>();
+        for (int i = 0; i <= CommandCodec.MAX_BATCH; i++) items.add(new Command.Item(i, Command.ROOMS));
+        Command c = roundTrip(new Command.Batch(items));
+        assertInstanceOf(Command.Invalid.class, c);
+    }
+
+    @Test
+    void hugeBatchCountIsRejectedBeforeReading() {
+        // BATCH with a count of 2^28 and no items behind it
+        byte[] body = {12, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        assertInstanceOf(Command.Invalid.class, BinaryCodec.decodeCommand(body));
+    }
+
+    @Test
+    void itemPastEndOfBatchIsMalformed() throws IOException {
+        byte[] frame = BinaryCodec.encode(new Command.Batch(List.of(new Command.Item(1, new Command.Join("general")))));
+        byte[] truncated = Arrays.copyOf(frame, frame.length - 2);
+        byte[] body = Arrays.copyOfRange(truncated, 1, truncated.length);
+        assertInstanceOf(Command.Invalid.class, BinaryCodec.decodeCommand(body));
+    }
+
+    @Test
+    void syncNamingTooManyConversationsIsInvalid() throws IOException {
+        Map<String, Long> since = new HashMap<>();
+        for (int i = 0; i < CommandCodec.MAX_SYNC; i++) since.put("room" + i, (long) i);
+        assertEquals(new Command.Sync(since, 50), roundTrip(new Command.Sync(since, 50)));
+        since.put("one-more", 1L);
+        assertInstanceOf(Command.Invalid.class, roundTrip(new Command.Sync(since, 50)));
+    }
+
+    @Test
+    void overlongTextIsInvalid() throws IOException {
+        String max = "x".repeat(CommandCodec.MAX_TEXT);
+        assertEquals(new Command.Pm("bob", max), roundTrip(new Command.Pm("bob", max)));
+        assertInstanceOf(Command.Invalid.class, roundTrip(new Command.Msg("general", max + "x")));
+    }
+}
@@ -0,0 +1,41 @@
+package com.chatapp.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandCodecTest {
+
+    private static String syncLine(int conversations) {
+        StringBuilder sb = new StringBuilder("{\"cmd\":\"sync\",\"limit\":20,\"since\":{");
+        for (int i = 0; i < conversations; i++) sb.append(i == 0 ? "" : ",").append("\"room").append(i).append("\":").append(i);
+        return sb.append("}}").toString();
+    }
+
+    @Test
+    void syncReadsSince() {
+        Command c = CommandCodec.decode("{\"cmd\":\"sync\",\"limit\":20,\"since\":{\"general\":120,\"bob\":98}}");
+        assertEquals(new Command.Sync(Map.of("general", 120L, "bob", 98L), 20), c);
+    }
+
+    @Test
+    void syncUpToLimitIsAccepted() {
+        Command.Sync sync = assertInstanceOf(Command.Sync.class, CommandCodec.decode(syncLine(CommandCodec.MAX_SYNC)));
+        assertEquals(CommandCodec.MAX_SYNC, sync.since().size());
+    }
+
+    @Test
+    void syncNamingTooManyConversationsIsInvalid() {
+        Command.Invalid c = assertInstanceOf(Command.Invalid.class, CommandCodec.decode(syncLine(CommandCodec.MAX_SYNC + 1)));
+        assertTrue(c.error().contains(String.valueOf(CommandCodec.MAX_SYNC)));
+    }
+
+    @Test
+    void overlongTextIsInvalid() {
+        String max = "x".repeat(CommandCodec.MAX_TEXT);
+        assertEquals(new Command.Msg("general", max), CommandCodec.decode("{\"cmd\":\"msg\",\"room\":\"general\",\"text\":\"" + max + "\"}"));
+        assertInstanceOf(Command.Invalid.class, CommandCodec.decode("{\"cmd\":\"pm\",\"to\":\"bob\",\"text\":\"" + max + "x\"}"));
+    }
+}
@@ -0,0 +1,33 @@
+package com.chatapp.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonLineReaderTest {
+
+    private static JsonLineReader<Command> reader(String input, int maxLineChars) {
+        return new JsonLineReader<>(new StringReader(input), CommandCodec::read, maxLineChars);
+    }
+
+    @Test
+    void everyLineIsLimited() throws IOException {
+        String ok = "{\"cmd\":\"join\",\"room\":\"general\"}";
+        String tooLong = "{\"cmd\":\"msg\",\"room\":\"general\",\"text\":\"" + "x".repeat(100) + "\"}";
+        JsonLineReader<Command> r = reader(ok + "\n" + ok + "\n" + tooLong + "\n" + ok + "\n", 64);
+        assertEquals(new Command.Join("general"), r.next());
+        assertEquals(new Command.Join("general"), r.next());
+        assertThrows(IOException.class, r::next);
+    }
+
+    @Test
+    void lineAtLimitIsRead() throws IOException {
+        String line = "{\"cmd\":\"join\",\"room\":\"general\"}";
+        JsonLineReader<Command> r = reader((line + "\n").repeat(3), line.length());
+        for (int i = 0; i < 3; i++) assertEquals(new Command.Join("general"), r.next());
+        assertNull(r.next());
+    }
+}
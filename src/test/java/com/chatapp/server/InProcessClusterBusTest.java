@@ -0,0 +1,123 @@
+package com.chatapp.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InProcessClusterBusTest {
+
+    /** Records every callback as one line, in delivery order. */
+    static final class Recorder implements ClusterBus.Listener {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onRoomMessage(String room, long id, String sender, String text) {
+            events.add("room " + room + " " + id + " " + sender + " " + text);
+        }
+
+        @Override
+        public void onPrivateMessage(String to, long id, String sender, String text) {
+            events.add("pm " + to + " " + id + " " + sender + " " + text);
+        }
+
+        @Override
+        public void onRoomNotice(String room, String text) {
+            events.add("notice " + room + " " + text);
+        }
+
+        String next() throws InterruptedException {
+            String e = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(e, "no event delivered");
+            return e;
+        }
+    }
+
+    static void eventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("condition not met within 5s");
+            Thread.sleep(10);
+        }
+    }
+
+    private final InProcessClusterBus.Hub hub = new InProcessClusterBus.Hub();
+    private final Recorder r1 = new Recorder(), r2 = new Recorder();
+    private InProcessClusterBus n1, n2;
+
+    @BeforeEach
+    void start() {
+        n1 = new InProcessClusterBus(hub, 1);
+        n2 = new InProcessClusterBus(hub, 2);
+        n1.start(r1);
+        n2.start(r2);
+    }
+
+    @AfterEach
+    void stop() {
+        n1.close();
+        n2.close();
+    }
+
+    @Test
+    void roomMessageReachesOtherNodeOnly() throws InterruptedException {
+        n1.publishRoomMessage("general", 42, "alice", "hello");
+        assertEquals("room general 42 alice hello", r2.next());
+        assertTrue(r1.events.isEmpty());
+    }
+
+    @Test
+    void privateMessageReachesOtherNode() throws InterruptedException {
+        n2.publishPrivateMessage("alice", 7, "bob", "hi there");
+        assertEquals("pm alice 7 bob hi there", r1.next());
+    }
+
+    @Test
+    void presenceIsMirroredAndWithdrawn() throws InterruptedException {
+        n1.userOnline("alice");
+        n1.roomOnline("general");
+        eventually(() -> n2.isRemoteUser("alice") && n2.remoteRooms().contains("general"));
+        assertFalse(n1.isRemoteUser("alice"));
+
+        n1.userOffline("alice");
+        n1.roomOffline("general");
+        eventually(() -> !n2.isRemoteUser("alice") && n2.remoteRooms().isEmpty());
+    }
+
+    @Test
+    void lateNodeReceivesSnapshot() throws InterruptedException {
+        n1.userOnline("alice");
+        n1.roomOnline("general");
+        InProcessClusterBus n3 = new InProcessClusterBus(hub, 3);
+        try {
+            n3.start(new Recorder());
+            eventually(() -> n3.isRemoteUser("alice") && n3.remoteRooms().contains("general"));
+        } finally {
+            n3.close();
+        }
+    }
+
+    @Test
+    void noticeGoesOnlyToNodesWithMembers() throws InterruptedException {
+        n2.roomOnline("general");
+        eventually(() -> n1.remoteRooms().contains("general"));
+        n1.publishRoomNotice("general", "carol joined");
+        n1.publishRoomNotice("empty", "nobody here");
+        assertEquals("notice general carol joined", r2.next());
+        assertNull(r2.events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void closedNodeIsForgotten() throws InterruptedException {
+        n1.userOnline("alice");
+        eventually(() -> n2.isRemoteUser("alice"));
+        n1.close();
+        eventually(() -> !n2.isRemoteUser("alice"));
+    }
+}
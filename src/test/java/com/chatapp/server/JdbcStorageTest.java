@@ -0,0 +1,52 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Against embedded H2 in MySQL mode, as with -Dchat.storage=h2. */
+class JdbcStorageTest {
+    private JdbcStorage storage;
+
+    @BeforeEach
+    void open() throws SQLException {
+        storage = new JdbcStorage("jdbc:h2:mem:jdbc-storage-test;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", null);
+        assertTrue(storage.saveMessages(List.of(
+                new Message(1, "alice", "general", true, "hello room"),
+                new Message(2, "alice", "bob", false, "hello bob"),
+                new Message(3, "bob", "alice", false, "hello alice"),
+                new Message(4, "carol", "other", true, "elsewhere"),
+                new Message(5, "carol", "bob", false, "not for alice"))));
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        try (PooledConnection c = storage.getPool().acquire(); Statement s = c.raw().createStatement()) {
+            s.execute("DROP ALL OBJECTS");
+        }
+        storage.close();
+    }
+
+    private static List<Long> ids(List<Map<String,Object>> rows) {
+        return rows.stream().map(r -> ((Number) r.get("id")).longValue()).toList();
+    }
+
+    @Test
+    void fetchMessagesKeepsToTheRoom() {
+        assertEquals(List.of(1L), ids(storage.fetchMessages("alice", "general", true, new long[]{1, 2, 4})));
+    }
+
+    @Test
+    void fetchMessagesKeepsToThePmPair() {
+        assertEquals(List.of(3L, 2L), ids(storage.fetchMessages("alice", "bob", false, new long[]{1, 2, 3, 4, 5})));
+        assertEquals(List.of(), ids(storage.fetchMessages("alice", "carol", false, new long[]{5})));
+    }
+}
@@ -0,0 +1,37 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogMessageStoreTest {
+    @TempDir
+    Path dir;
+
+    private static List<Long> ids(List<Map<String,Object>> rows) {
+        return rows.stream().map(r -> ((Number) r.get("id")).longValue()).toList();
+    }
+
+    @Test
+    void nameTooLongForRecordIsRefused() throws IOException {
+        try (LogMessageStore store = new LogMessageStore(dir, 1 << 20, false)) {
+            assertTrue(store.save(List.of(new Message(1, "alice", "general", true, "first"))));
+            String room = "r".repeat(0x10000);
+            assertFalse(store.save(List.of(
+                    new Message(2, "alice", "general", true, "second"),
+                    new Message(3, "alice", room, true, "lost"))));
+            assertTrue(store.save(List.of(new Message(4, "alice", "general", true, "third"))));
+            assertEquals(List.of(4L, 1L), ids(store.fetchHistory("alice", "general", true, null, null, 10)));
+        }
+        try (LogMessageStore reopened = new LogMessageStore(dir, 1 << 20, false)) {
+            assertEquals(List.of(4L, 1L), ids(reopened.fetchHistory("alice", "general", true, null, null, 10)));
+        }
+    }
+}
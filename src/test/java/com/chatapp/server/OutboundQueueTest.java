@@ -0,0 +1,58 @@
+package com.chatapp.server;
+
+import com.chatapp.protocol.BinaryCodec;
+import com.chatapp.protocol.BinaryFrameReader;
+import com.chatapp.protocol.ServerEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+
+    private static List<byte[]> drain(OutboundQueue q) {
+        List<byte[]> out = new ArrayList<>();
+        for (byte[] f; (f = q.poll()) != null; ) out.add(f);
+        return out;
+    }
+
+    @Test
+    void lagNoticeIsEncodedInConnectionFormat() throws IOException {
+        OutboundQueue q = new OutboundQueue(4, OutboundQueue.Policy.MARK_LAGGING, Frame::binary);
+        byte[] msg = Frames.serverMsg("hi").binary();
+        for (int i = 0; i < 6; i++) assertTrue(q.offer(msg));
+        assertTrue(q.isLagging());
+        assertEquals(4, drain(q).size());
+
+        assertTrue(q.offer(msg));
+        assertFalse(q.isLagging());
+        List<byte[]> out = drain(q);
+        assertEquals(2, out.size());
+        ServerEvent notice = new BinaryFrameReader<>(new ByteArrayInputStream(out.get(0)), BinaryCodec::decodeEvent).next();
+        assertInstanceOf(ServerEvent.ServerMsg.class, notice);
+        assertTrue(((ServerEvent.ServerMsg) notice).text().startsWith("[server] 2 messages were dropped"));
+        assertSame(msg, out.get(1));
+    }
+
+    @Test
+    void dropOldestKeepsNewest() {
+        OutboundQueue q = new OutboundQueue(2, OutboundQueue.Policy.DROP_OLDEST, Frame::json);
+        byte[] a = {1}, b = {2}, c = {3};
+        q.offer(a);
+        q.offer(b);
+        q.offer(c);
+        assertEquals(List.of(b, c), drain(q));
+        assertEquals(1, q.getDropped());
+    }
+
+    @Test
+    void disconnectRefusesWhenFull() {
+        OutboundQueue q = new OutboundQueue(1, OutboundQueue.Policy.DISCONNECT, Frame::json);
+        assertTrue(q.offer(new byte[]{1}));
+        assertFalse(q.offer(new byte[]{2}));
+    }
+}
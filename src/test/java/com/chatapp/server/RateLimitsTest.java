@@ -0,0 +1,58 @@
+package com.chatapp.server;
+
+import com.chatapp.protocol.Command;
+import com.chatapp.util.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static com.chatapp.server.InProcessClusterBusTest.eventually;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitsTest {
+    private static final Command MSG = new Command.Msg("general", "hi");
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, 64);
+
+    @AfterEach
+    void stop() {
+        timer.close();
+    }
+
+    @Test
+    void reconnectingDoesNotResetBudget() {
+        RateLimits limits = new RateLimits("msg=0.1/2", "0", timer);
+        RateLimits.Buckets b = limits.forUser("alice");
+        assertTrue(b.tryAcquire(MSG));
+        assertTrue(b.tryAcquire(MSG));
+        assertFalse(b.tryAcquire(MSG));
+        limits.release("alice");
+        assertFalse(limits.forUser("alice").tryAcquire(MSG));
+    }
+
+    @Test
+    void bucketsAreSharedWhileAnyConnectionRemains() {
+        RateLimits limits = new RateLimits("msg=0.1/1", "0", timer);
+        RateLimits.Buckets first = limits.forUser("alice");
+        RateLimits.Buckets second = limits.forUser("alice");
+        assertSame(first, second);
+        limits.release("alice");
+        assertSame(first, limits.forUser("alice"));
+    }
+
+    @Test
+    void fullBucketsAreForgottenAtOnce() {
+        RateLimits limits = new RateLimits("msg=0.1/2", "0", timer);
+        limits.forUser("alice");
+        limits.release("alice");
+        assertEquals(0, limits.getTrackedUsers());
+    }
+
+    @Test
+    void drawnBucketsExpireOnceRefilled() throws InterruptedException {
+        RateLimits limits = new RateLimits("msg=20/1", "0", timer);
+        assertTrue(limits.forUser("alice").tryAcquire(MSG));
+        limits.release("alice");
+        assertEquals(1, limits.getTrackedUsers());
+        eventually(() -> limits.getTrackedUsers() == 0);
+    }
+}
@@ -0,0 +1,65 @@
+package com.chatapp.server;
+
+import com.chatapp.server.InProcessClusterBusTest.Recorder;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static com.chatapp.server.InProcessClusterBusTest.eventually;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TcpClusterBusTest {
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    @Test
+    void nodesWithSameSecretLinkUp() throws Exception {
+        int p1 = freePort(), p2 = freePort();
+        Recorder r2 = new Recorder();
+        try (TcpClusterBus n1 = new TcpClusterBus(1, p1, "127.0.0.1:" + p2, "s3cret");
+             TcpClusterBus n2 = new TcpClusterBus(2, p2, "127.0.0.1:" + p1, "s3cret")) {
+            n1.start(new Recorder());
+            n2.start(r2);
+            eventually(() -> n1.getConnectedPeers() == 1 && n2.getConnectedPeers() == 1);
+            n1.userOnline("alice");
+            eventually(() -> n2.isRemoteUser("alice"));
+            n1.publishRoomMessage("general", 1, "alice", "hello");
+            assertEquals("room general 1 alice hello", r2.next());
+        }
+    }
+
+    @Test
+    void peerWithWrongSecretIsIgnored() throws Exception {
+        int p1 = freePort(), p2 = freePort();
+        Recorder r2 = new Recorder();
+        try (TcpClusterBus n1 = new TcpClusterBus(1, p1, "127.0.0.1:" + p2, "wrong");
+             TcpClusterBus n2 = new TcpClusterBus(2, p2, "", "s3cret")) {
+            n2.start(r2);
+            n1.start(new Recorder());
+            n1.userOnline("mallory");
+            n1.publishRoomMessage("general", 1, "mallory", "spoofed");
+            TimeUnit.MILLISECONDS.sleep(500);
+            assertFalse(n2.isRemoteUser("mallory"));
+            assertTrue(r2.events.isEmpty());
+        }
+    }
+
+    @Test
+    void peerWithoutSecretIsIgnored() throws Exception {
+        int p1 = freePort(), p2 = freePort();
+        try (TcpClusterBus n1 = new TcpClusterBus(1, p1, "127.0.0.1:" + p2, "");
+             TcpClusterBus n2 = new TcpClusterBus(2, p2, "", "s3cret")) {
+            n2.start(new Recorder());
+            n1.start(new Recorder());
+            n1.userOnline("mallory");
+            TimeUnit.MILLISECONDS.sleep(500);
+            assertFalse(n2.isRemoteUser("mallory"));
+        }
+    }
+}